@@ -3,28 +3,34 @@ package be.cylab.mark.client;
 import be.cylab.mark.core.DataAgentProfile;
 import be.cylab.mark.core.DetectionAgentProfile;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.googlecode.jsonrpc4j.JsonRpcHttpClient;
 import java.net.URL;
 import java.util.HashMap;
-import be.cylab.mark.core.ServerInterface;
+import be.cylab.mark.core.AsyncServerInterface;
+import be.cylab.mark.core.BatchServerInterface;
 import be.cylab.mark.core.Evidence;
+import be.cylab.mark.core.EvidenceAggregate;
+import be.cylab.mark.core.EvidencePage;
 import be.cylab.mark.core.RawData;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.googlecode.jsonrpc4j.JsonRpcClient;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import org.bson.types.ObjectId;
 
 /**
+ * Client for the JSON-RPC interface of the datastore.
+ *
+ * Requests are sent using the ConnectionPool, which is shared by all clients
+ * of the JVM.
  *
  * @author Thibault Debatty
  */
-public class Client implements ServerInterface {
-
-    private static final int CONNECTION_TIMEOUT = 5000;
+public class Client
+        implements BatchServerInterface, AsyncServerInterface {
 
-    private final JsonRpcHttpClient json_rpc_client;
+    private final JsonRpcPooledClient json_rpc_client;
     private final URL server_url;
 
     /**
@@ -34,10 +40,20 @@ public class Client implements ServerInterface {
      * @param server_url
      */
     public Client(final URL server_url) {
+        this(server_url, WireFormat.JSON);
+    }
+
+    /**
+     * Create a client that exchanges messages with the server using the
+     * provided wire format (WireFormat.JSON, SMILE or CBOR).
+     *
+     * @param server_url
+     * @param format
+     */
+    public Client(final URL server_url, final String format) {
 
         this.server_url = server_url;
-        json_rpc_client = new JsonRpcHttpClient(server_url);
-        json_rpc_client.setConnectionTimeoutMillis(CONNECTION_TIMEOUT);
+        json_rpc_client = new JsonRpcPooledClient(server_url, format);
     }
 
     /**
@@ -61,6 +77,29 @@ public class Client implements ServerInterface {
 
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * @param data {@inheritDoc}
+     */
+    @Override
+    public final void addRawData(final RawData[] data) throws Throwable {
+
+        json_rpc_client.invoke("addRawData", new Object[]{data});
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param evidences {@inheritDoc}
+     */
+    @Override
+    public final void addEvidence(final Evidence[] evidences)
+            throws Throwable {
+
+        json_rpc_client.invoke("addEvidence", new Object[]{evidences});
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -128,6 +167,75 @@ public class Client implements ServerInterface {
                 RawData[].class);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * @param label
+     * @param subject
+     * @param from
+     * @param till
+     * @param after
+     * @param limit
+     * @param fields
+     * @return
+     * @throws Throwable
+     */
+    @Override
+    public final RawData[] findRawData(
+            final String label, final Map<String, String> subject,
+            final long from, final long till, final String after,
+            final int limit, final String[] fields) throws Throwable {
+
+        return json_rpc_client.invoke(
+                "findRawData",
+                new Object[]{label, subject, from, till, after, limit, fields},
+                RawData[].class);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param label
+     * @param subject
+     * @param from
+     * @param till
+     * @param fields
+     * @return
+     * @throws Throwable
+     */
+    @Override
+    public final RawData[] findRawData(
+            final String label, final Map<String, String> subject,
+            final long from, final long till, final String[] fields)
+            throws Throwable {
+
+        return json_rpc_client.invoke(
+                "findRawData",
+                new Object[]{label, subject, from, till, fields},
+                RawData[].class);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param label
+     * @param subject
+     * @param from
+     * @param till
+     * @return
+     * @throws Throwable
+     */
+    @Override
+    public final long countRawData(
+            final String label, final Map<String, String> subject,
+            final long from, final long till) throws Throwable {
+
+        return json_rpc_client.invoke(
+                "countRawData",
+                new Object[]{label, subject, from, till},
+                Long.class);
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -214,6 +322,16 @@ public class Client implements ServerInterface {
                 Evidence[].class);
     }
 
+    @Override
+    public final EvidencePage findEvidencePage(
+            final String label, final String token) throws Throwable {
+
+        return json_rpc_client.invoke(
+                "findEvidencePage",
+                new Object[]{label, token},
+                EvidencePage.class);
+    }
+
     @Override
     public final Evidence[] findLastEvidences(
             final String label, final Map<String, String> subject)
@@ -288,6 +406,17 @@ public class Client implements ServerInterface {
         return evidences;
     }
 
+    @Override
+    public final EvidenceAggregate aggregateEvidence(
+            final String label, final Map<String, String> subject,
+            final long from, final long till) throws Throwable {
+
+        return json_rpc_client.invoke(
+                "aggregateEvidence",
+                new Object[]{label, subject, from, till},
+                EvidenceAggregate.class);
+    }
+
     /**
      * Get the internal json_rpc_client.
      *
@@ -341,4 +470,101 @@ public class Client implements ServerInterface {
         return json_rpc_client.invoke(
                 "sources", null, DataAgentProfile[].class);
     }
+
+    /**
+     * Create a batch of queries, that will be sent in a single JSON-RPC
+     * batch request.
+     *
+     * @return
+     */
+    @Override
+    public final JsonRpcBatch batch() {
+        return new JsonRpcBatch(json_rpc_client);
+    }
+
+    @Override
+    public final CompletableFuture<Void> addRawDataAsync(final RawData data) {
+        return json_rpc_client.invokeAsync(
+                "addRawData", new Object[]{data}, Void.class);
+    }
+
+    @Override
+    public final CompletableFuture<Void> addRawDataAsync(
+            final RawData[] data) {
+        return json_rpc_client.invokeAsync(
+                "addRawData", new Object[]{data}, Void.class);
+    }
+
+    @Override
+    public final CompletableFuture<Void> addEvidenceAsync(
+            final Evidence evidence) {
+        return json_rpc_client.invokeAsync(
+                "addEvidence", new Object[]{evidence}, Void.class);
+    }
+
+    @Override
+    public final CompletableFuture<Void> addEvidenceAsync(
+            final Evidence[] evidences) {
+        return json_rpc_client.invokeAsync(
+                "addEvidence", new Object[]{evidences}, Void.class);
+    }
+
+    @Override
+    public final CompletableFuture<RawData[]> findRawDataAsync(
+            final String label, final Map<String, String> subject,
+            final long from, final long till) {
+        return json_rpc_client.invokeAsync(
+                "findRawData",
+                new Object[]{label, subject, from, till},
+                RawData[].class);
+    }
+
+    @Override
+    public final CompletableFuture<Evidence[]> findEvidenceAsync(
+            final String label, final Map<String, String> subject) {
+        return json_rpc_client.invokeAsync(
+                "findEvidence",
+                new Object[]{label, subject},
+                Evidence[].class)
+                .thenApply(Client::sort);
+    }
+
+    @Override
+    public final CompletableFuture<Evidence[]> findEvidenceSinceAsync(
+            final String label, final Map<String, String> subject,
+            final long time) {
+        return json_rpc_client.invokeAsync(
+                "findEvidenceSince",
+                new Object[]{label, subject, time},
+                Evidence[].class)
+                .thenApply(Client::sort);
+    }
+
+    @Override
+    public final CompletableFuture<Evidence[]> findEvidenceAsync(
+            final String label) {
+        return json_rpc_client.invokeAsync(
+                "findEvidence", new Object[]{label}, Evidence[].class);
+    }
+
+    @Override
+    public final CompletableFuture<Evidence> findEvidenceByIdAsync(
+            final String id) {
+        return json_rpc_client.invokeAsync(
+                "findEvidenceById", new Object[]{id}, Evidence.class);
+    }
+
+    @Override
+    public final CompletableFuture<Evidence[]> findLastEvidencesAsync(
+            final String label, final Map<String, String> subject) {
+        return json_rpc_client.invokeAsync(
+                "findLastEvidences",
+                new Object[]{label, subject},
+                Evidence[].class);
+    }
+
+    private static Evidence[] sort(final Evidence[] evidences) {
+        Arrays.sort(evidences, new EvidenceTimeComparator());
+        return evidences;
+    }
 }
@@ -0,0 +1,226 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.client;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+
+/**
+ * Pool of persistent (keep-alive) HTTP connections, shared by all Client
+ * instances of the JVM.
+ *
+ * Detection jobs create a new Client for each run. Thanks to this pool, they
+ * reuse the connections that are already open to the datastore instead of
+ * opening (and closing) a new connection for each request.
+ *
+ * Asynchronous (non-blocking) requests use a separate pool, with the same
+ * size, which is only created when the first asynchronous request is sent.
+ * Its I/O threads are daemon threads, so they don't prevent the JVM from
+ * exiting.
+ *
+ * @author tibo
+ */
+public final class ConnectionPool {
+
+    /**
+     * Default max number of connections.
+     */
+    public static final int DEFAULT_SIZE = 100;
+
+    private static final int CONNECTION_TIMEOUT = 5000;
+    private static final int SOCKET_TIMEOUT = 120000;
+    private static final int REQUEST_TIMEOUT = 60000;
+
+    // idle connections are closed after this delay (in seconds)
+    private static final int IDLE_TIMEOUT = 30;
+
+    // connections that were idle for more than this delay (in ms) are
+    // checked before being reused
+    private static final int VALIDATE_AFTER_INACTIVITY = 2000;
+
+    private static final PoolingHttpClientConnectionManager MANAGER;
+    private static final CloseableHttpClient HTTP_CLIENT;
+    private static final AtomicLong REQUESTS = new AtomicLong();
+    private static final RequestConfig REQUEST_CONFIG = RequestConfig.custom()
+            .setConnectTimeout(CONNECTION_TIMEOUT)
+            .setSocketTimeout(SOCKET_TIMEOUT)
+            .setConnectionRequestTimeout(REQUEST_TIMEOUT)
+            .build();
+
+    // created when the first async request is sent
+    // guarded by synchronized (ConnectionPool.class)
+    private static PoolingNHttpClientConnectionManager async_manager;
+    private static volatile CloseableHttpAsyncClient async_client;
+    private static int size = DEFAULT_SIZE;
+
+    static {
+        MANAGER = new PoolingHttpClientConnectionManager();
+        MANAGER.setMaxTotal(DEFAULT_SIZE);
+        MANAGER.setDefaultMaxPerRoute(DEFAULT_SIZE);
+        MANAGER.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY);
+
+        HTTP_CLIENT = HttpClients.custom()
+                .setConnectionManager(MANAGER)
+                .setDefaultRequestConfig(REQUEST_CONFIG)
+                .evictIdleConnections(IDLE_TIMEOUT, TimeUnit.SECONDS)
+                .evictExpiredConnections()
+                .disableCookieManagement()
+                .build();
+    }
+
+    private ConnectionPool() {
+    }
+
+    /**
+     * Set the max number of connections in the pool. As all clients connect
+     * to the same datastore, this is also the max number of connections
+     * per server.
+     *
+     * @param pool_size
+     */
+    public static synchronized void setSize(final int pool_size) {
+        if (pool_size <= 0) {
+            throw new IllegalArgumentException(
+                    "Size of connection pool must be > 0");
+        }
+
+        size = pool_size;
+        MANAGER.setMaxTotal(pool_size);
+        MANAGER.setDefaultMaxPerRoute(pool_size);
+
+        if (async_manager != null) {
+            async_manager.setMaxTotal(pool_size);
+            async_manager.setDefaultMaxPerRoute(pool_size);
+        }
+    }
+
+    /**
+     * Get the HTTP client that uses this pool.
+     * @return
+     */
+    static CloseableHttpClient getHttpClient() {
+        REQUESTS.incrementAndGet();
+        return HTTP_CLIENT;
+    }
+
+    /**
+     * Get the non-blocking HTTP client. The client (and its I/O threads) is
+     * created and started the first time this method is called.
+     *
+     * @return
+     * @throws IOReactorException if the I/O reactor cannot be created
+     */
+    static CloseableHttpAsyncClient getAsyncHttpClient()
+            throws IOReactorException {
+
+        REQUESTS.incrementAndGet();
+        CloseableHttpAsyncClient client = async_client;
+        if (client != null) {
+            return client;
+        }
+
+        synchronized (ConnectionPool.class) {
+            if (async_client == null) {
+                IOReactorConfig reactor_config = IOReactorConfig.custom()
+                        .setConnectTimeout(CONNECTION_TIMEOUT)
+                        .setSoTimeout(SOCKET_TIMEOUT)
+                        .build();
+                async_manager = new PoolingNHttpClientConnectionManager(
+                        new DefaultConnectingIOReactor(
+                                reactor_config,
+                                daemonThreads("mark-client-io")));
+                async_manager.setMaxTotal(size);
+                async_manager.setDefaultMaxPerRoute(size);
+
+                CloseableHttpAsyncClient new_client = HttpAsyncClients.custom()
+                        .setConnectionManager(async_manager)
+                        .setDefaultRequestConfig(REQUEST_CONFIG)
+                        .disableCookieManagement()
+                        .setThreadFactory(daemonThreads("mark-client-reactor"))
+                        .build();
+                new_client.start();
+                async_client = new_client;
+            }
+            return async_client;
+        }
+    }
+
+    /**
+     * Create daemon threads (the async client is never closed).
+     */
+    private static ThreadFactory daemonThreads(final String name) {
+        AtomicLong count = new AtomicLong();
+        return runnable -> {
+            Thread thread = new Thread(
+                    runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Metrics of the pool: max number of connections, number of connections
+     * currently in use (leased), idle connections kept alive (available),
+     * number of requests waiting for a connection (pending) and total
+     * number of requests sent.
+     *
+     * @return
+     */
+    public static Map<String, Object> getStatus() {
+        PoolStats stats = MANAGER.getTotalStats();
+        Map<String, Object> status = new HashMap<>();
+        status.put("client.pool.max", stats.getMax());
+        status.put("client.pool.leased", stats.getLeased());
+        status.put("client.pool.available", stats.getAvailable());
+        status.put("client.pool.pending", stats.getPending());
+        status.put("client.pool.requests", REQUESTS.get());
+
+        synchronized (ConnectionPool.class) {
+            if (async_manager != null) {
+                PoolStats async_stats = async_manager.getTotalStats();
+                status.put("client.pool.async.leased",
+                        async_stats.getLeased());
+                status.put("client.pool.async.available",
+                        async_stats.getAvailable());
+                status.put("client.pool.async.pending",
+                        async_stats.getPending());
+            }
+        }
+        return status;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.client;
+
+import be.cylab.mark.core.Batch;
+import be.cylab.mark.core.Evidence;
+import be.cylab.mark.core.RawData;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Batch of queries, sent as a single JSON-RPC 2.0 batch request (an array
+ * of requests, in a single HTTP POST).
+ *
+ * @author tibo
+ */
+public final class JsonRpcBatch implements Batch {
+
+    /**
+     * A query that waits for its result.
+     */
+    private static final class Call {
+        private final String method;
+        private final Object[] params;
+        private final Type type;
+        private final CompletableFuture<Object> result =
+                new CompletableFuture<>();
+
+        Call(final String method, final Object[] params, final Type type) {
+            this.method = method;
+            this.params = params;
+            this.type = type;
+        }
+    }
+
+    private final JsonRpcPooledClient client;
+    private final List<Call> calls = new ArrayList<>();
+
+    /**
+     *
+     * @param client
+     */
+    JsonRpcBatch(final JsonRpcPooledClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Add a call to the batch.
+     *
+     * @param <T>
+     * @param method
+     * @param params
+     * @param type
+     * @return the future result of the call
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> add(
+            final String method, final Object[] params, final Class<T> type) {
+
+        Call call = new Call(method, params, type);
+        calls.add(call);
+        return (CompletableFuture<T>) call.result;
+    }
+
+    @Override
+    public CompletableFuture<RawData[]> findRawData(
+            final String label, final Map<String, String> subject,
+            final long from, final long till) {
+        return add(
+                "findRawData",
+                new Object[]{label, subject, from, till},
+                RawData[].class);
+    }
+
+    @Override
+    public CompletableFuture<Evidence[]> findEvidence(
+            final String label, final Map<String, String> subject) {
+
+        // evidences are sorted, like in Client
+        return add(
+                "findEvidence",
+                new Object[]{label, subject},
+                Evidence[].class)
+                .thenApply(JsonRpcBatch::sort);
+    }
+
+    @Override
+    public CompletableFuture<Evidence[]> findEvidenceSince(
+            final String label, final Map<String, String> subject,
+            final long time) {
+
+        return add(
+                "findEvidenceSince",
+                new Object[]{label, subject, time},
+                Evidence[].class)
+                .thenApply(JsonRpcBatch::sort);
+    }
+
+    @Override
+    public CompletableFuture<Evidence[]> findLastEvidences(
+            final String label, final Map<String, String> subject) {
+        return add(
+                "findLastEvidences",
+                new Object[]{label, subject},
+                Evidence[].class);
+    }
+
+    @Override
+    public CompletableFuture<Evidence[]> findEvidence(final String label) {
+        return add("findEvidence", new Object[]{label}, Evidence[].class);
+    }
+
+    @Override
+    public CompletableFuture<Evidence> findEvidenceById(final String id) {
+        return add("findEvidenceById", new Object[]{id}, Evidence.class);
+    }
+
+    private static Evidence[] sort(final Evidence[] evidences) {
+        Arrays.sort(evidences, new EvidenceTimeComparator());
+        return evidences;
+    }
+
+    @Override
+    public void execute() throws Throwable {
+        if (calls.isEmpty()) {
+            return;
+        }
+
+        // the id of each request is its index in the batch
+        ArrayNode array = client.getObjectMapper().createArrayNode();
+        Map<String, Call> sent = new HashMap<>();
+        for (Call call : calls) {
+            String id = String.valueOf(sent.size());
+            array.add(client.createRequest(call.method, call.params, id));
+            sent.put(id, call);
+        }
+        calls.clear();
+
+        JsonNode responses;
+        try {
+            responses = client.invokeBatch(array);
+        } catch (Throwable ex) {
+            for (Call call : sent.values()) {
+                call.result.completeExceptionally(ex);
+            }
+            throw ex;
+        }
+
+        if (!responses.isArray()) {
+            // the whole batch was rejected: this throws the error
+            client.readResult(Object.class, responses);
+        }
+
+        for (JsonNode response : responses) {
+            Call call = sent.remove(response.path("id").asText());
+            if (call == null) {
+                continue;
+            }
+
+            try {
+                call.result.complete(client.readResult(call.type, response));
+            } catch (Throwable ex) {
+                call.result.completeExceptionally(ex);
+            }
+        }
+
+        for (Call call : sent.values()) {
+            call.result.completeExceptionally(
+                    new IOException("No response for batch request"));
+        }
+    }
+}
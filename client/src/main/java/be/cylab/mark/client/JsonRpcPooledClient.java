@@ -0,0 +1,317 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.googlecode.jsonrpc4j.IJsonRpcClient;
+import com.googlecode.jsonrpc4j.JsonRpcClient;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+/**
+ * JSON-RPC client that sends requests using the shared ConnectionPool,
+ * instead of opening a new HttpURLConnection for each request (like
+ * JsonRpcHttpClient).
+ *
+ * @author tibo
+ */
+public class JsonRpcPooledClient extends JsonRpcClient
+        implements IJsonRpcClient {
+
+    /**
+     * Parse the content of a response.
+     */
+    private interface ResponseReader {
+        Object read(InputStream input) throws Throwable;
+    }
+
+    private final URL service_url;
+    private final ContentType content_type;
+    private RequestListener request_listener;
+
+    /**
+     * Client that uses JSON.
+     *
+     * @param service_url
+     */
+    public JsonRpcPooledClient(final URL service_url) {
+        this(service_url, WireFormat.JSON);
+    }
+
+    /**
+     * Client that uses the given wire format (WireFormat.JSON, SMILE or
+     * CBOR).
+     *
+     * @param service_url
+     * @param format
+     */
+    public JsonRpcPooledClient(final URL service_url, final String format) {
+        super(WireFormat.createObjectMapper(format));
+        this.service_url = service_url;
+        this.content_type = ContentType.create(
+                WireFormat.getContentType(format));
+    }
+
+    /**
+     *
+     * @return
+     */
+    public final URL getServiceUrl() {
+        return service_url;
+    }
+
+    @Override
+    public final void invoke(final String method_name, final Object argument)
+            throws Throwable {
+        invoke(method_name, argument, null, new HashMap<>());
+    }
+
+    @Override
+    public final Object invoke(
+            final String method_name, final Object argument,
+            final Type return_type) throws Throwable {
+        return invoke(method_name, argument, return_type, new HashMap<>());
+    }
+
+    @Override
+    public final Object invoke(
+            final String method_name, final Object argument,
+            final Type return_type, final Map<String, String> extra_headers)
+            throws Throwable {
+
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        super.invoke(method_name, argument, request);
+        return send(
+                request.toByteArray(),
+                extra_headers,
+                input -> readResponse(return_type, input));
+    }
+
+    @Override
+    public final <T> T invoke(
+            final String method_name, final Object argument,
+            final Class<T> clazz) throws Throwable {
+        return invoke(method_name, argument, clazz, new HashMap<>());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public final <T> T invoke(
+            final String method_name, final Object argument,
+            final Class<T> clazz, final Map<String, String> extra_headers)
+            throws Throwable {
+
+        return (T) invoke(method_name, argument, (Type) clazz, extra_headers);
+    }
+
+    /**
+     * Send a request that is already built (for example parsed from a
+     * JSON string).
+     *
+     * @param <T>
+     * @param request
+     * @param clazz
+     * @param extra_headers
+     * @return
+     * @throws Throwable if the request failed
+     */
+    @SuppressWarnings("unchecked")
+    public final <T> T invoke(
+            final ObjectNode request, final Class<T> clazz,
+            final Map<String, String> extra_headers) throws Throwable {
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        super.invoke(request, output);
+        return (T) send(
+                output.toByteArray(),
+                extra_headers,
+                input -> readResponse(clazz, input));
+    }
+
+    /**
+     * Send the request without blocking the calling thread.
+     *
+     * The request is built (and sent to the request listener) before this
+     * method returns. The response is parsed by the I/O thread of the
+     * non-blocking HTTP client, which completes the future.
+     *
+     * @param <T>
+     * @param method_name
+     * @param argument
+     * @param clazz
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public final <T> CompletableFuture<T> invokeAsync(
+            final String method_name, final Object argument,
+            final Class<T> clazz) {
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        try {
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            super.invoke(method_name, argument, request);
+            HttpPost post = createPost(request.toByteArray(), new HashMap<>());
+
+            ConnectionPool.getAsyncHttpClient().execute(
+                    post, new FutureCallback<HttpResponse>() {
+
+                @Override
+                public void completed(final HttpResponse response) {
+                    try {
+                        result.complete((T) read(
+                                response,
+                                input -> readResponse(clazz, input)));
+                    } catch (Throwable ex) {
+                        result.completeExceptionally(ex);
+                    }
+                }
+
+                @Override
+                public void failed(final Exception ex) {
+                    result.completeExceptionally(ex);
+                }
+
+                @Override
+                public void cancelled() {
+                    result.cancel(false);
+                }
+            });
+
+        } catch (IOException ex) {
+            result.completeExceptionally(ex);
+        }
+
+        return result;
+    }
+
+    /**
+     * Send multiple requests in a single JSON-RPC batch.
+     *
+     * @param requests
+     * @return the responses (normally an array)
+     * @throws Throwable if the request failed
+     */
+    final JsonNode invokeBatch(final ArrayNode requests) throws Throwable {
+        if (request_listener != null) {
+            for (JsonNode request : requests) {
+                request_listener.onBeforeRequestSent(
+                        this, (ObjectNode) request);
+            }
+        }
+
+        return (JsonNode) send(
+                getObjectMapper().writeValueAsBytes(requests),
+                new HashMap<>(),
+                input -> getObjectMapper().readTree(input));
+    }
+
+    /**
+     * Extract the result of a single response (element of a batch), or
+     * throw the error returned by the server.
+     *
+     * @param return_type
+     * @param response
+     * @return
+     * @throws Throwable if the server returned an error
+     */
+    final Object readResult(final Type return_type, final JsonNode response)
+            throws Throwable {
+        return readResponse(return_type, response);
+    }
+
+    @Override
+    public final void setRequestListener(
+            final RequestListener request_listener) {
+        super.setRequestListener(request_listener);
+        this.request_listener = request_listener;
+    }
+
+    /**
+     * POST the request to the server, and parse the response.
+     * @throws Throwable if the request failed, or if the server returned an
+     * error
+     */
+    private Object send(
+            final byte[] request,
+            final Map<String, String> extra_headers,
+            final ResponseReader reader) throws Throwable {
+
+        HttpPost post = createPost(request, extra_headers);
+        try (CloseableHttpResponse response =
+                ConnectionPool.getHttpClient().execute(post)) {
+
+            return read(response, reader);
+        }
+    }
+
+    private HttpPost createPost(
+            final byte[] request, final Map<String, String> extra_headers) {
+
+        HttpPost post = new HttpPost(service_url.toString());
+        for (Map.Entry<String, String> header : extra_headers.entrySet()) {
+            post.setHeader(header.getKey(), header.getValue());
+        }
+        post.setHeader("Accept", content_type.getMimeType());
+        post.setEntity(new ByteArrayEntity(request, content_type));
+        return post;
+    }
+
+    /**
+     * Parse the content of the response.
+     * @throws Throwable if the response is empty or contains an error
+     */
+    private Object read(
+            final HttpResponse response, final ResponseReader reader)
+            throws Throwable {
+
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            throw new IOException(
+                    "Empty response from " + service_url + " : "
+                    + response.getStatusLine());
+        }
+
+        // closing the stream releases the connection, which goes back
+        // to the pool
+        try (InputStream input = entity.getContent()) {
+            return reader.read(input);
+        }
+    }
+}
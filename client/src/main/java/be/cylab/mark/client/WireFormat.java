@@ -0,0 +1,153 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Formats that can be used to exchange JSON-RPC messages with the datastore.
+ *
+ * JSON is the default, and is always supported (web interface, external
+ * scripts). Smile and CBOR are binary encodings of the same data model, that
+ * are faster to encode and decode, and more compact (for example for large
+ * arrays of RawData). The datastore uses the Content-Type of the request to
+ * decide which format is used, and responds in the same format.
+ *
+ * @author tibo
+ */
+public final class WireFormat {
+
+    /**
+     * JSON text (default).
+     */
+    public static final String JSON = "json";
+
+    /**
+     * Smile binary format.
+     */
+    public static final String SMILE = "smile";
+
+    /**
+     * CBOR binary format.
+     */
+    public static final String CBOR = "cbor";
+
+    /**
+     * Content type of JSON-RPC requests in JSON.
+     */
+    public static final String JSON_CONTENT_TYPE = "application/json-rpc";
+
+    /**
+     * Content type of requests in Smile.
+     */
+    public static final String SMILE_CONTENT_TYPE =
+            "application/x-jackson-smile";
+
+    /**
+     * Content type of requests in CBOR.
+     */
+    public static final String CBOR_CONTENT_TYPE = "application/cbor";
+
+    private WireFormat() {
+    }
+
+    /**
+     * Get the HTTP content type corresponding to this format.
+     *
+     * @param format
+     * @return
+     */
+    public static String getContentType(final String format) {
+        switch (check(format)) {
+            case SMILE:
+                return SMILE_CONTENT_TYPE;
+            case CBOR:
+                return CBOR_CONTENT_TYPE;
+            default:
+                return JSON_CONTENT_TYPE;
+        }
+    }
+
+    /**
+     * Get the format corresponding to this HTTP content type. Returns JSON
+     * if the content type is null or is not a binary format.
+     *
+     * @param content_type
+     * @return
+     */
+    public static String fromContentType(final String content_type) {
+        if (content_type == null) {
+            return JSON;
+        }
+
+        // remove parameters, like "; charset=UTF-8"
+        String mime_type = content_type.split(";", 2)[0].trim();
+        if (mime_type.equalsIgnoreCase(SMILE_CONTENT_TYPE)) {
+            return SMILE;
+        }
+
+        if (mime_type.equalsIgnoreCase(CBOR_CONTENT_TYPE)) {
+            return CBOR;
+        }
+
+        return JSON;
+    }
+
+    /**
+     * Create an ObjectMapper that reads and writes this format.
+     *
+     * @param format
+     * @return
+     */
+    public static ObjectMapper createObjectMapper(final String format) {
+        switch (check(format)) {
+            case SMILE:
+                return new ObjectMapper(new SmileFactory());
+            case CBOR:
+                return new ObjectMapper(new CBORFactory());
+            default:
+                return new ObjectMapper();
+        }
+    }
+
+    /**
+     * Check that the format is supported.
+     *
+     * @param format
+     * @return the format
+     * @throws IllegalArgumentException if the format is not supported
+     */
+    public static String check(final String format) {
+        if (JSON.equals(format)
+                || SMILE.equals(format)
+                || CBOR.equals(format)) {
+            return format;
+        }
+
+        throw new IllegalArgumentException(
+                "Unsupported wire format: " + format);
+    }
+}
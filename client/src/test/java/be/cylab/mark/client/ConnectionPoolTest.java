@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpServer;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Map;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author tibo
+ */
+public class ConnectionPoolTest extends TestCase {
+
+    /**
+     * Successive clients must reuse the same connection.
+     *
+     * @throws Throwable
+     */
+    public void testKeepAlive() throws Throwable {
+        ObjectMapper mapper = new ObjectMapper();
+
+        HttpServer server = HttpServer.create(
+                new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            ObjectNode request = mapper.readValue(
+                    exchange.getRequestBody(), ObjectNode.class);
+            ObjectNode response = mapper.createObjectNode();
+            response.put("jsonrpc", "2.0");
+            response.set("id", request.get("id"));
+            response.put("result", "test");
+
+            byte[] bytes = mapper.writeValueAsBytes(response);
+            exchange.getResponseHeaders().add(
+                    "Content-Type", "application/json-rpc");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(bytes);
+            }
+        });
+        server.start();
+
+        try {
+            URL url = new URL(
+                    "http://127.0.0.1:" + server.getAddress().getPort());
+
+            for (int i = 0; i < 10; i++) {
+                Client client = new Client(url);
+                assertEquals("test", client.test());
+            }
+
+            // a single connection, kept alive between requests
+            Map<String, Object> status = ConnectionPool.getStatus();
+            assertEquals(0, status.get("client.pool.leased"));
+            assertEquals(1, status.get("client.pool.available"));
+
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * The threads of the async client must not prevent the JVM from
+     * exiting.
+     *
+     * @throws Throwable
+     */
+    public void testAsyncDaemonThreads() throws Throwable {
+        ConnectionPool.getAsyncHttpClient();
+
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("mark-client-")) {
+                assertTrue(thread.getName(), thread.isDaemon());
+                count++;
+            }
+        }
+        assertTrue(count > 0);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.core;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking counterparts of the main query and insert methods of
+ * ServerInterface. The methods return immediately, so a single thread can
+ * have several requests in flight:
+ *
+ * <pre>
+ * CompletableFuture&lt;RawData[]&gt; data =
+ *         datastore.findRawDataAsync(label, subject, from, till);
+ * CompletableFuture&lt;Evidence[]&gt; evidences =
+ *         datastore.findEvidenceSinceAsync(label, subject, from);
+ * data.get();
+ * evidences.get();
+ * </pre>
+ *
+ * @author tibo
+ */
+public interface AsyncServerInterface {
+
+    /**
+     * @see ServerInterface#addRawData(RawData)
+     * @param data
+     * @return
+     */
+    CompletableFuture<Void> addRawDataAsync(RawData data);
+
+    /**
+     * @see ServerInterface#addRawData(RawData[])
+     * @param data
+     * @return
+     */
+    CompletableFuture<Void> addRawDataAsync(RawData[] data);
+
+    /**
+     * @see ServerInterface#addEvidence(Evidence)
+     * @param evidence
+     * @return
+     */
+    CompletableFuture<Void> addEvidenceAsync(Evidence evidence);
+
+    /**
+     * @see ServerInterface#addEvidence(Evidence[])
+     * @param evidences
+     * @return
+     */
+    CompletableFuture<Void> addEvidenceAsync(Evidence[] evidences);
+
+    /**
+     * @see ServerInterface#findRawData(String, Map, long, long)
+     * @param label
+     * @param subject
+     * @param from
+     * @param till
+     * @return
+     */
+    CompletableFuture<RawData[]> findRawDataAsync(
+            String label, Map<String, String> subject, long from, long till);
+
+    /**
+     * @see ServerInterface#findEvidence(String, Map)
+     * @param label
+     * @param subject
+     * @return
+     */
+    CompletableFuture<Evidence[]> findEvidenceAsync(
+            String label, Map<String, String> subject);
+
+    /**
+     * @see ServerInterface#findEvidenceSince(String, Map, long)
+     * @param label
+     * @param subject
+     * @param time
+     * @return
+     */
+    CompletableFuture<Evidence[]> findEvidenceSinceAsync(
+            String label, Map<String, String> subject, long time);
+
+    /**
+     * @see ServerInterface#findEvidence(String)
+     * @param label
+     * @return
+     */
+    CompletableFuture<Evidence[]> findEvidenceAsync(String label);
+
+    /**
+     * @see ServerInterface#findEvidenceById(String)
+     * @param id
+     * @return
+     */
+    CompletableFuture<Evidence> findEvidenceByIdAsync(String id);
+
+    /**
+     * @see ServerInterface#findLastEvidences(String, Map)
+     * @param label
+     * @param subject
+     * @return
+     */
+    CompletableFuture<Evidence[]> findLastEvidencesAsync(
+            String label, Map<String, String> subject);
+}
@@ -0,0 +1,109 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.core;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A batch of queries, sent to the datastore in a single request.
+ *
+ * Queries are only collected when the methods of the batch are called. They
+ * are all sent when execute() is called, after which the returned futures
+ * hold the results (or the error of each query).
+ *
+ * <pre>
+ * Batch batch = datastore.batch();
+ * CompletableFuture&lt;RawData[]&gt; data = batch.findRawData(...);
+ * CompletableFuture&lt;Evidence[]&gt; evidences = batch.findEvidence(...);
+ * batch.execute();
+ * data.get();
+ * </pre>
+ *
+ * @author tibo
+ */
+public interface Batch {
+
+    /**
+     * @see ServerInterface#findRawData(String, Map, long, long)
+     * @param label
+     * @param subject
+     * @param from
+     * @param till
+     * @return
+     */
+    CompletableFuture<RawData[]> findRawData(
+            String label, Map<String, String> subject, long from, long till);
+
+    /**
+     * @see ServerInterface#findEvidence(String, Map)
+     * @param label
+     * @param subject
+     * @return
+     */
+    CompletableFuture<Evidence[]> findEvidence(
+            String label, Map<String, String> subject);
+
+    /**
+     * @see ServerInterface#findEvidenceSince(String, Map, long)
+     * @param label
+     * @param subject
+     * @param time
+     * @return
+     */
+    CompletableFuture<Evidence[]> findEvidenceSince(
+            String label, Map<String, String> subject, long time);
+
+    /**
+     * @see ServerInterface#findLastEvidences(String, Map)
+     * @param label
+     * @param subject
+     * @return
+     */
+    CompletableFuture<Evidence[]> findLastEvidences(
+            String label, Map<String, String> subject);
+
+    /**
+     * @see ServerInterface#findEvidence(String)
+     * @param label
+     * @return
+     */
+    CompletableFuture<Evidence[]> findEvidence(String label);
+
+    /**
+     * @see ServerInterface#findEvidenceById(String)
+     * @param id
+     * @return
+     */
+    CompletableFuture<Evidence> findEvidenceById(String id);
+
+    /**
+     * Send all queries collected so far. The batch can then be reused for
+     * other queries.
+     *
+     * @throws Throwable if the request failed. Errors of individual queries
+     * are reported by their future.
+     */
+    void execute() throws Throwable;
+}
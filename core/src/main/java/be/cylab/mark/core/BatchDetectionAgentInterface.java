@@ -0,0 +1,57 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Thibault Debatty.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.core;
+
+/**
+ * Detection agents that implement this interface can analyze a batch of
+ * events (for different subjects) in a single job. This allows to share the
+ * connection to the datastore between subjects.
+ *
+ * Batches are only built if the server is configured with a batch_size
+ * larger than 1. Otherwise (or for a single event) the agent is used as a
+ * normal DetectionAgentInterface.
+ *
+ * @author tibo
+ */
+public interface BatchDetectionAgentInterface extends DetectionAgentInterface {
+
+    /**
+     * Perform the analysis for all events of the batch. Events all have a
+     * different subject.
+     *
+     * Implementations should catch exceptions for each subject: if this
+     * method throws, no evidence is produced for the remaining subjects of
+     * the batch.
+     *
+     * @param events the events (label, subject, time) that triggered this
+     * detector
+     * @param profile
+     * @param datastore
+     * @throws Throwable if an error occured during analysis
+     */
+    void analyze(
+            Event[] events,
+            DetectionAgentProfile profile,
+            ServerInterface datastore) throws Throwable;
+}
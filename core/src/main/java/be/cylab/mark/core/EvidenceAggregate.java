@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Statistics computed by the datastore over the score of evidences (for a
+ * label, subject and time window), together with the id of the evidences
+ * that were used.
+ *
+ * If no evidence was found, count is 0 and all other values are 0.
+ *
+ * @author tibo
+ */
+public class EvidenceAggregate {
+
+    private long count;
+    private double min;
+    private double max;
+    private double avg;
+    private double sum;
+    private List<String> ids = new ArrayList<>();
+
+    /**
+     * Number of evidences.
+     * @return
+     */
+    public final long getCount() {
+        return count;
+    }
+
+    /**
+     *
+     * @param count
+     */
+    public final void setCount(final long count) {
+        this.count = count;
+    }
+
+    /**
+     * Lowest score.
+     * @return
+     */
+    public final double getMin() {
+        return min;
+    }
+
+    /**
+     *
+     * @param min
+     */
+    public final void setMin(final double min) {
+        this.min = min;
+    }
+
+    /**
+     * Highest score.
+     * @return
+     */
+    public final double getMax() {
+        return max;
+    }
+
+    /**
+     *
+     * @param max
+     */
+    public final void setMax(final double max) {
+        this.max = max;
+    }
+
+    /**
+     * Average score.
+     * @return
+     */
+    public final double getAvg() {
+        return avg;
+    }
+
+    /**
+     *
+     * @param avg
+     */
+    public final void setAvg(final double avg) {
+        this.avg = avg;
+    }
+
+    /**
+     * Sum of scores.
+     * @return
+     */
+    public final double getSum() {
+        return sum;
+    }
+
+    /**
+     *
+     * @param sum
+     */
+    public final void setSum(final double sum) {
+        this.sum = sum;
+    }
+
+    /**
+     * Id of the evidences that were used.
+     * @return
+     */
+    public final List<String> getIds() {
+        return ids;
+    }
+
+    /**
+     *
+     * @param ids
+     */
+    public final void setIds(final List<String> ids) {
+        this.ids = ids;
+    }
+}
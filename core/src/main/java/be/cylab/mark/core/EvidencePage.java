@@ -0,0 +1,67 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.core;
+
+/**
+ * A page of evidences, and the token to get the next page.
+ *
+ * @author tibo
+ */
+public class EvidencePage {
+
+    private Evidence[] evidences = new Evidence[0];
+    private String next;
+
+    /**
+     *
+     * @return
+     */
+    public final Evidence[] getEvidences() {
+        return evidences;
+    }
+
+    /**
+     *
+     * @param evidences
+     */
+    public final void setEvidences(final Evidence[] evidences) {
+        this.evidences = evidences;
+    }
+
+    /**
+     * Token to get the next page, or null if this is the last page.
+     * @return
+     */
+    public final String getNext() {
+        return next;
+    }
+
+    /**
+     *
+     * @param next
+     */
+    public final void setNext(final String next) {
+        this.next = next;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.core;
+
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterate over the raw data records of a time window, without loading all
+ * records in memory. Records are fetched from the datastore one page at a
+ * time (using keyset pagination), when they are needed.
+ *
+ * <pre>
+ * RawDataCursor cursor = new RawDataCursor(
+ *         datastore, label, subject, from, till);
+ * while (cursor.hasNext()) {
+ *     RawData record = cursor.next();
+ *     ...
+ * }
+ * </pre>
+ *
+ * Records are returned sorted by time.
+ *
+ * @author tibo
+ */
+public final class RawDataCursor {
+
+    /**
+     * Default number of records fetched with a single request.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+
+    private final ServerInterface datastore;
+    private final String label;
+    private final Map<String, String> subject;
+    private final long till;
+    private final int page_size;
+    private final String[] fields;
+
+    // position of the cursor: time and id of the last record that was
+    // fetched
+    private long from;
+    private String after;
+
+    private RawData[] page = new RawData[0];
+    private int position = 0;
+    private boolean done = false;
+
+    /**
+     *
+     * @param datastore
+     * @param label
+     * @param subject
+     * @param from
+     * @param till
+     */
+    public RawDataCursor(
+            final ServerInterface datastore, final String label,
+            final Map<String, String> subject, final long from,
+            final long till) {
+        this(datastore, label, subject, from, till, DEFAULT_PAGE_SIZE, null);
+    }
+
+    /**
+     * Only fill the given fields of the records (the time and id are always
+     * filled).
+     *
+     * @param datastore
+     * @param label
+     * @param subject
+     * @param from
+     * @param till
+     * @param fields
+     */
+    public RawDataCursor(
+            final ServerInterface datastore, final String label,
+            final Map<String, String> subject, final long from,
+            final long till, final String[] fields) {
+        this(datastore, label, subject, from, till, DEFAULT_PAGE_SIZE, fields);
+    }
+
+    /**
+     *
+     * @param datastore
+     * @param label
+     * @param subject
+     * @param from
+     * @param till
+     * @param page_size number of records fetched with a single request
+     * @param fields fields to fill, or null for all fields
+     */
+    public RawDataCursor(
+            final ServerInterface datastore, final String label,
+            final Map<String, String> subject, final long from,
+            final long till, final int page_size, final String[] fields) {
+
+        if (page_size < 1) {
+            throw new IllegalArgumentException("page_size must be >= 1");
+        }
+
+        this.datastore = datastore;
+        this.label = label;
+        this.subject = subject;
+        this.from = from;
+        this.till = till;
+        this.page_size = page_size;
+        this.fields = fields;
+    }
+
+    /**
+     * Check if there are more records. This may fetch the next page from the
+     * datastore.
+     *
+     * @return
+     * @throws Throwable if the request to the datastore fails
+     */
+    public boolean hasNext() throws Throwable {
+        if (position < page.length) {
+            return true;
+        }
+
+        if (done) {
+            return false;
+        }
+
+        page = datastore.findRawData(
+                label, subject, from, till, after, page_size, fields);
+        position = 0;
+
+        // a short page is the last one
+        if (page.length < page_size) {
+            done = true;
+        }
+
+        if (page.length == 0) {
+            return false;
+        }
+
+        RawData last = page[page.length - 1];
+        from = last.getTime();
+        after = last.getId();
+        return true;
+    }
+
+    /**
+     * Get the next record.
+     *
+     * @return
+     * @throws Throwable if the request to the datastore fails
+     */
+    public RawData next() throws Throwable {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        RawData record = page[position];
+        // let the GC collect records that were already consumed
+        page[position] = null;
+        position++;
+        return record;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Batch that simply performs the queries one after the other, when execute()
+ * is called. Used for datastores that have no batch request (like a direct
+ * binding to the datastore, for which requests are cheap anyway).
+ *
+ * @author tibo
+ */
+public final class SequentialBatch implements Batch {
+
+    /**
+     * A query on the datastore.
+     * @param <T>
+     */
+    private interface Query<T> {
+        T run(ServerInterface datastore) throws Throwable;
+    }
+
+    private final ServerInterface datastore;
+    private final List<Runnable> queries = new ArrayList<>();
+
+    /**
+     *
+     * @param datastore
+     */
+    public SequentialBatch(final ServerInterface datastore) {
+        this.datastore = datastore;
+    }
+
+    private <T> CompletableFuture<T> add(final Query<T> query) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        queries.add(() -> {
+            try {
+                result.complete(query.run(datastore));
+            } catch (Throwable ex) {
+                result.completeExceptionally(ex);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<RawData[]> findRawData(
+            final String label, final Map<String, String> subject,
+            final long from, final long till) {
+        return add(ds -> ds.findRawData(label, subject, from, till));
+    }
+
+    @Override
+    public CompletableFuture<Evidence[]> findEvidence(
+            final String label, final Map<String, String> subject) {
+        return add(ds -> ds.findEvidence(label, subject));
+    }
+
+    @Override
+    public CompletableFuture<Evidence[]> findEvidenceSince(
+            final String label, final Map<String, String> subject,
+            final long time) {
+        return add(ds -> ds.findEvidenceSince(label, subject, time));
+    }
+
+    @Override
+    public CompletableFuture<Evidence[]> findLastEvidences(
+            final String label, final Map<String, String> subject) {
+        return add(ds -> ds.findLastEvidences(label, subject));
+    }
+
+    @Override
+    public CompletableFuture<Evidence[]> findEvidence(final String label) {
+        return add(ds -> ds.findEvidence(label));
+    }
+
+    @Override
+    public CompletableFuture<Evidence> findEvidenceById(final String id) {
+        return add(ds -> ds.findEvidenceById(id));
+    }
+
+    @Override
+    public void execute() {
+        List<Runnable> to_run = new ArrayList<>(queries);
+        queries.clear();
+        for (Runnable query : to_run) {
+            query.run();
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package be.cylab.mark.core;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import org.bson.types.ObjectId;
@@ -9,6 +12,11 @@ import org.bson.types.ObjectId;
  * Interface defining all methods provided by the server. These are implemented
  * by the client and server packages.
  *
+ * Methods that were added later (bulk inserts, counts, projections,
+ * aggregates and pages) have a default implementation that uses the other
+ * methods, so existing implementations keep working. These defaults
+ * transfer all records, hence implementations should override them.
+ *
  * @author Thibault Debatty
  */
 public interface ServerInterface {
@@ -41,6 +49,32 @@ public interface ServerInterface {
      */
     void addEvidence(Evidence evidence) throws Throwable;
 
+    /**
+     * Add multiple raw data records at once. This is much faster than adding
+     * records one by one: records are inserted in a single database
+     * operation, and the activation is notified only once.
+     *
+     * @param data
+     * @throws java.lang.Throwable if request fails
+     */
+    default void addRawData(RawData[] data) throws Throwable {
+        for (RawData record : data) {
+            addRawData(record);
+        }
+    }
+
+    /**
+     * Add multiple evidences at once.
+     *
+     * @param evidences
+     * @throws java.lang.Throwable if request fails
+     */
+    default void addEvidence(Evidence[] evidences) throws Throwable {
+        for (Evidence evidence : evidences) {
+            addEvidence(evidence);
+        }
+    }
+
     /**
      *
      * @param bytes
@@ -77,6 +111,85 @@ public interface ServerInterface {
     RawData[] findRawData(String label, Map<String, String> subject,
             long from, long till) throws Throwable;
 
+    /**
+     * Find raw data, but only fill the requested fields ("label", "time",
+     * "subject" or "data"). The id is always filled. This avoids to read and
+     * transfer the data field when only the timestamps are needed.
+     *
+     * @param label
+     * @param subject
+     * @param from
+     * @param till
+     * @param fields
+     * @return
+     * @throws java.lang.Throwable if request fails
+     */
+    default RawData[] findRawData(String label, Map<String, String> subject,
+            long from, long till, String[] fields) throws Throwable {
+        return findRawData(label, subject, from, till);
+    }
+
+    /**
+     * Get a single page of raw data, sorted by time (and id).
+     *
+     * The page starts after the record identified by from and after: the
+     * records with time > from, or with time == from and id > after. If
+     * after is null, the page starts with the first record at time from.
+     * Use a RawDataCursor to iterate over all records without loading them
+     * all in memory.
+     *
+     * @param label
+     * @param subject
+     * @param from
+     * @param till
+     * @param after id of the last record of the previous page, or null
+     * @param limit max number of records in the page
+     * @param fields fields to fill (the time and id are always filled), or
+     * null for all fields
+     * @return
+     * @throws java.lang.Throwable if request fails
+     */
+    default RawData[] findRawData(String label, Map<String, String> subject,
+            long from, long till, String after, int limit, String[] fields)
+            throws Throwable {
+
+        RawData[] all = findRawData(label, subject, from, till);
+        Arrays.sort(all, Comparator.comparingLong(RawData::getTime)
+                .thenComparing(
+                        RawData::getId,
+                        Comparator.nullsFirst(Comparator.naturalOrder())));
+
+        List<RawData> page = new ArrayList<>();
+        for (RawData record : all) {
+            if (page.size() >= limit) {
+                break;
+            }
+
+            if (after != null && record.getTime() == from
+                    && (record.getId() == null
+                        || record.getId().compareTo(after) <= 0)) {
+                continue;
+            }
+            page.add(record);
+        }
+        return page.toArray(new RawData[page.size()]);
+    }
+
+    /**
+     * Count the raw data records, without transferring them.
+     *
+     * @param label
+     * @param subject
+     * @param from
+     * @param till
+     * @return
+     * @throws java.lang.Throwable if request fails
+     */
+    default long countRawData(String label, Map<String, String> subject,
+            long from, long till) throws Throwable {
+        return findRawData(label, subject, from, till).length;
+    }
+
     /**
      *
      * @param label
@@ -98,6 +211,46 @@ public interface ServerInterface {
     Evidence[] findEvidenceSince(String label, Map<String, String> subject,
             long time) throws Throwable;
 
+    /**
+     * Compute the count, min, max, average and sum of the score of evidences
+     * with time in ]from, till], without transferring the evidences
+     * themselves. The id of the evidences is also returned.
+     *
+     * @param label
+     * @param subject
+     * @param from
+     * @param till
+     * @return
+     * @throws Throwable if request fails
+     */
+    default EvidenceAggregate aggregateEvidence(String label,
+            Map<String, String> subject, long from, long till)
+            throws Throwable {
+
+        EvidenceAggregate aggregate = new EvidenceAggregate();
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        for (Evidence evidence : findEvidenceSince(label, subject, from)) {
+            if (evidence.getTime() > till) {
+                continue;
+            }
+            aggregate.setCount(aggregate.getCount() + 1);
+            min = Math.min(min, evidence.getScore());
+            max = Math.max(max, evidence.getScore());
+            sum += evidence.getScore();
+            aggregate.getIds().add(evidence.getId());
+        }
+
+        if (aggregate.getCount() > 0) {
+            aggregate.setMin(min);
+            aggregate.setMax(max);
+            aggregate.setSum(sum);
+            aggregate.setAvg(sum / aggregate.getCount());
+        }
+        return aggregate;
+    }
+
 
     /**
      * Find the evidences with highest score, for given label and for all
@@ -119,6 +272,34 @@ public interface ServerInterface {
      */
     Evidence[] findEvidence(String label, int page) throws Throwable;
 
+    /**
+     * Get a page of evidences of given label (the most recent evidence of
+     * each subject, sorted by decreasing score). Unlike findEvidence(label,
+     * page), the cost of a page does not depend on its position.
+     *
+     * @param label
+     * @param token null for the first page, then the token returned with the
+     * previous page (EvidencePage.getNext())
+     * @return
+     * @throws java.lang.Throwable if request fails
+     */
+    default EvidencePage findEvidencePage(String label, String token)
+            throws Throwable {
+
+        // the default token is simply the number of the next page
+        int page = 1;
+        if (token != null) {
+            page = Integer.parseInt(token);
+        }
+
+        EvidencePage result = new EvidencePage();
+        result.setEvidences(findEvidence(label, page));
+        if (result.getEvidences().length > 0) {
+            result.setNext(String.valueOf(page + 1));
+        }
+        return result;
+    }
+
     /**
      * Get a single evidence by id.
      *
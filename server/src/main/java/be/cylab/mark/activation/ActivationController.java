@@ -4,20 +4,29 @@ import be.cylab.mark.core.Event;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.Map;
+import be.cylab.mark.core.BatchDetectionAgentInterface;
 import be.cylab.mark.core.DetectionAgentProfile;
 import be.cylab.mark.core.InvalidProfileException;
 import be.cylab.mark.core.DetectionAgentInterface;
 import be.cylab.mark.core.Evidence;
 import be.cylab.mark.core.RawData;
+import be.cylab.mark.core.ServerInterface;
 import be.cylab.mark.server.Config;
 import be.cylab.mark.server.SafeThread;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,6 +40,11 @@ import org.slf4j.LoggerFactory;
  Compute Grid:
  https://apacheignite.readme.io/docs/compute-grid#section-ignitecompute
  *
+ * In event mode (Config.activation_mode: event), the thread does not poll but
+ * wakes up when a new event is received. It then waits
+ * Config.activation_delay milliseconds, so events received in the mean time
+ * are coalesced, before triggering the analysis jobs.
+ *
  * @author Thibault Debatty
  */
 @Singleton
@@ -40,21 +54,57 @@ public final class ActivationController extends SafeThread
     private static final Logger LOGGER
             = LoggerFactory.getLogger(ActivationController.class);
 
-    private final HashMap<String, DetectionAgentProfile> profiles =
+    // min delay (ms) when activation must wait for the executor
+    private static final long MIN_BACKLOG_DELAY = 100;
+
+    // guarded by synchronized (profiles)
+    private final Map<String, DetectionAgentProfile> profiles =
             new HashMap<>();
+
+    // profiles indexed by trigger label, rebuilt each time the profiles
+    // are modified
+    private volatile TriggerIndex trigger_index =
+            new TriggerIndex(Collections.emptyList());
+
+    // instances of detection agents, rebuilt with the trigger index
+    private volatile DetectorPool detector_pool =
+            new DetectorPool(Collections.emptyList(), 0);
     private final ExecutorInterface executor;
 
-    // store the last time an agent has been triggered for a specific Subject,
-    // to be able to handle if it needs to be triggered at specific intervals
-    private final Map<String, Long> last_time_triggered;
+    // jobs that are submitted to the executor, but did not start yet, by
+    // (profile, subject): new triggers are merged into these jobs
+    private final Map<JobKey, DetectionAgentContainer> queued_jobs =
+            new ConcurrentHashMap<>();
+    private final AtomicLong coalesced_jobs = new AtomicLong();
+
+    // wait and execution time of the jobs executed in this JVM
+    private final JobStatistics job_statistics = new JobStatistics();
+
+    // number of times activation was delayed because of executor backlog
+    private final AtomicLong throttled = new AtomicLong();
+
+    // store until when an agent should not be triggered again for a specific
+    // subject, to be able to handle if it needs to be triggered at specific
+    // intervals
+    // only used by the activation thread
+    private final TriggerTimes trigger_times;
 
     // events are stored in a table of label => subjects => Event
     // to allow fast lookup
-    private volatile Map<String, Map<Map, Event>> events;
+    private final EventTable events;
     private final Config config;
 
     private volatile boolean running = true;
 
+    // in-process binding to the datastore, for jobs that run in this JVM
+    private volatile ServerInterface local_datastore;
+
+    // event mode: the activation thread waits on this semaphore, which is
+    // released by the first event received after each activation round
+    private final boolean event_mode;
+    private final Semaphore wakeup = new Semaphore(0);
+    private final AtomicBoolean pending = new AtomicBoolean(false);
+
     /**
      *
      * @param config
@@ -66,8 +116,11 @@ public final class ActivationController extends SafeThread
 
         this.config = config;
         this.executor = executor;
-        this.events = new HashMap<>();
-        this.last_time_triggered = new HashMap<>();
+        this.events = new EventTable();
+        this.trigger_times = new TriggerTimes(
+                config.getTriggerTrackingCapacity());
+        this.event_mode = Config.ACTIVATION_MODE_EVENT.equals(
+                config.getActivationMode());
     }
 
     /**
@@ -102,40 +155,69 @@ public final class ActivationController extends SafeThread
     }
 
     /**
-     * Add this event to the tree of events (if required).
-     * @param new_event
+     * Trigger required tasks for these new RawData.
+     *
+     * @param data
      */
-    synchronized void addEvent(final Event new_event) {
-
-        // all subjects that have an event with this label
-        Map<Map, Event> subjects = events.get(new_event.getLabel());
-
-        if (subjects == null) {
-            subjects = new HashMap<>();
-            events.put(new_event.getLabel(), subjects);
+    @Override
+    public void notifyRawData(final RawData[] data) {
+
+        for (RawData record : data) {
+            events.add(
+                    new Event(
+                            record.getLabel(),
+                            record.getSubject(),
+                            record.getTime(),
+                            record.getId()));
         }
+        wakeUp();
+    }
 
-        Event saved_event = subjects.get(new_event.getSubject());
-
-        // until now there was no such event (label) for this subject
-        if (saved_event == null) {
-            subjects.put(new_event.getSubject(), new_event);
-            return;
+    /**
+     *
+     * @param evidences
+     */
+    @Override
+    public void notifyEvidence(final Evidence[] evidences) {
+
+        for (Evidence evidence : evidences) {
+            events.add(
+                    new Event(
+                            evidence.getLabel(),
+                            evidence.getSubject(),
+                            evidence.getTime(),
+                            evidence.getId()));
         }
+        wakeUp();
+    }
+
+    /**
+     * Add this event to the tree of events (if required).
+     * This method is called concurrently by the threads of the datastore, and
+     * does not lock the controller.
+     *
+     * @param new_event
+     */
+    void addEvent(final Event new_event) {
+        events.add(new_event);
+        wakeUp();
+    }
 
-        // the new event is more recent then the one we have
-        if (saved_event.getTimestamp() < new_event.getTimestamp()) {
-            subjects.replace(new_event.getSubject(), new_event);
+    /**
+     * In event mode, wake up the activation thread (only once per
+     * activation round).
+     */
+    private void wakeUp() {
+        if (event_mode && pending.compareAndSet(false, true)) {
+            wakeup.release();
         }
     }
 
     @Override
     public void doRun() throws Throwable {
 
-        Map<String, Map<Map, Event>> copy_of_events;
-
         while (true) {
-            Thread.sleep(1000 * config.getUpdateInterval());
+            waitForEvents();
 
             if (!this.running) {
                 continue;
@@ -145,19 +227,60 @@ public final class ActivationController extends SafeThread
                 return;
             }
 
-            // Clone the list of events and clear
-            synchronized (this) {
-                copy_of_events = this.events;
-                this.events = new HashMap<>();
-            }
+            waitForBacklog();
+
+            // Take the events received so far, without blocking the
+            // threads that keep adding new events
+            this.processEvents(events.drain());
+        }
+    }
+
+    /**
+     * Wait until the next activation round.
+     *
+     * In interval mode, simply sleep for update_interval seconds. In event
+     * mode, wait for a new event, then sleep for activation_delay
+     * milliseconds to coalesce the events that arrive shortly after.
+     *
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private void waitForEvents() throws InterruptedException {
+        if (!event_mode) {
+            Thread.sleep(1000 * config.getUpdateInterval());
+            return;
+        }
+
+        wakeup.acquire();
+        Thread.sleep(config.getActivationDelay());
+
+        // events received from now on will trigger a new round
+        pending.set(false);
+    }
 
-            this.processEvents(copy_of_events);
+    /**
+     * If the executor cannot keep up (too many jobs are waiting), wait before
+     * triggering new jobs. The delay grows exponentially, up to
+     * update_interval. In the mean time, events are coalesced in the table.
+     *
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private void waitForBacklog() throws InterruptedException {
+        long delay = MIN_BACKLOG_DELAY;
+        long max_delay = Math.max(
+                MIN_BACKLOG_DELAY, 1000L * config.getUpdateInterval());
+
+        while (executor.getBacklog() > config.getActivationMaxBacklog()) {
+            throttled.incrementAndGet();
+            LOGGER.debug("Executor backlog is too large, wait {}ms", delay);
+            Thread.sleep(delay);
+            delay = Math.min(2 * delay, max_delay);
         }
     }
 
     /**
      * Process the events: for each received label find the agents that must be
-     * triggered then spawn one agent for each subject.
+     * triggered then spawn one agent for each subject (or one agent for each
+     * batch of subjects, for batch detectors).
      *
      * @param events
      */
@@ -165,19 +288,21 @@ public final class ActivationController extends SafeThread
 
         int scheduled = 0;
         int events_count = 0;
+        TriggerIndex index = this.trigger_index;
+
+        // profile => events that must be analyzed by this profile
+        Map<DetectionAgentProfile, List<Event>> triggered =
+                new IdentityHashMap<>();
 
         for (String event_label : events.keySet()) {
 
-            for (DetectionAgentProfile profile : profiles.values()) {
-                if (!this.checkLabelsMatch(
-                        profile.getTriggerLabel(), event_label)) {
-                    continue;
-                }
+            for (DetectionAgentProfile profile : index.match(event_label)) {
 
                 for (Event event : events.get(event_label).values()) {
 
                     events_count++;
-                    if (!checkTriggerInterval(profile, event)) {
+                    long now = System.currentTimeMillis();
+                    if (!checkTriggerInterval(profile, event, now)) {
                         LOGGER.debug(
                                 "Skip {} for {} because of trigger interval",
                                 profile.getLabel(),
@@ -185,32 +310,22 @@ public final class ActivationController extends SafeThread
                         continue;
                     }
 
-                    updateLastTimeTriggered(profile, event);
-                    this.scheduleDetection(profile, event);
-                    scheduled++;
-
+                    updateLastTimeTriggered(profile, event, now);
+                    triggered.computeIfAbsent(
+                            profile, p -> new ArrayList<>()).add(event);
                 }
             }
         }
-        LOGGER.info("Processed " + events_count + " events against "
-                + profiles.size() + " profiles and scheduled " + scheduled
-                + " detectors ...");
-    }
 
-    /**
-     * Check if the trigger label defined in a detection profile matches the
-     * label of an event (and hence wether we should run this detector).
-     *
-     * Uses pattern matching...
-     *
-     * @param trigger_label
-     * @param event_label
-     * @return true if event_label matches trigger_label
-     */
-    boolean checkLabelsMatch(
-            final String trigger_label, final String event_label) {
+        for (Map.Entry<DetectionAgentProfile, List<Event>> entry
+                : triggered.entrySet()) {
+            scheduled += this.scheduleDetection(
+                    entry.getKey(), entry.getValue());
+        }
 
-        return Pattern.compile(trigger_label).matcher(event_label).find();
+        LOGGER.info("Processed " + events_count + " events against "
+                + index.size() + " profiles and scheduled " + scheduled
+                + " detectors ...");
     }
 
     /**
@@ -218,58 +333,117 @@ public final class ActivationController extends SafeThread
      * triggered event for a given detection agent is long enough.
      * @param profile
      * @param event
+     * @param now
      * @return true if the profile should be triggered (delay was long enough)
      */
     boolean checkTriggerInterval(
-            final DetectionAgentProfile profile, final Event event) {
-
-        String key = profile.getClassName() + "-"
-                            + event.getSubject().toString();
-
-        if (!last_time_triggered.containsKey(key)) {
-            return true;
-        }
+            final DetectionAgentProfile profile, final Event event,
+            final long now) {
 
-        long delay = System.currentTimeMillis() - last_time_triggered.get(key);
         // getTriggerInterval is expressed in seconds
-        return delay > 1000 * profile.getTriggerInterval();
+        return trigger_times.canTrigger(
+                profile.getClassName(),
+                event.getSubject(),
+                now,
+                1000L * profile.getTriggerInterval());
     }
 
     /**
-     * Updates the LastTimeTriggered map with the new timestamp for the specific
-     * Detection Agent-Subject pair.
+     * Record the time at which this Detection Agent-Subject pair was
+     * triggered. Nothing is recorded if the agent has no trigger interval.
      * @param profile
      * @param event
+     * @param now
      */
     private void updateLastTimeTriggered(
-            final DetectionAgentProfile profile, final Event event) {
+            final DetectionAgentProfile profile, final Event event,
+            final long now) {
+
+        if (profile.getTriggerInterval() <= 0) {
+            return;
+        }
 
-        String key = profile.getClassName() + "-"
-                            + event.getSubject().toString();
-        last_time_triggered.put(key, System.currentTimeMillis());
+        trigger_times.triggered(
+                profile.getClassName(), event.getSubject(), now);
     }
 
     /**
-     * Start the detection algorithm described in this profile for this subject.
+     * Start the detection algorithm described in this profile for these
+     * events (subjects).
+     *
+     * If a job for the same profile and subject is still waiting in the
+     * queue of the executor, the event is merged into this job instead.
+     *
+     * If the detector supports batches, and batch_size is larger than 1,
+     * events are grouped in batches of batch_size subjects: each batch is
+     * analyzed by a single job.
+     *
      * @param profile
-     * @param subject_time
-     * @param event_label
+     * @param events
+     * @return the number of submitted jobs
      */
-    private void scheduleDetection(
+    private int scheduleDetection(
             final DetectionAgentProfile profile,
-            final Event event) {
+            final List<Event> events) {
 
+        int submitted = 0;
+        DetectorPool pool = this.detector_pool;
         try {
-            LOGGER.debug(
-                    "Trigger detector {} for {}",
-                    profile.getClassName(),
-                    event.getSubject().toString());
-            executor.submit(
-                    new DetectionAgentContainer(
-                            event,
-                            config.getDatastoreUrl(),
-                            profile,
-                            profile.createInstance()));
+            URL datastore_url = config.getDatastoreUrl();
+            DetectionAgentInterface agent = pool.acquire(profile);
+            int batch_size = config.getBatchSize();
+
+            if (batch_size > 1
+                    && agent instanceof BatchDetectionAgentInterface) {
+
+                List<Event> batch = new ArrayList<>();
+                for (Event event : events) {
+                    if (!coalesce(profile, event)) {
+                        batch.add(event);
+                    }
+
+                    if (batch.size() == batch_size) {
+                        submitBatch(pool, profile, batch, agent);
+                        submitted++;
+                        batch = new ArrayList<>();
+                        agent = null;
+                    }
+                }
+
+                if (!batch.isEmpty()) {
+                    submitBatch(pool, profile, batch, agent);
+                    submitted++;
+                    agent = null;
+                }
+
+                if (agent != null) {
+                    pool.release(profile, agent);
+                }
+                return submitted;
+            }
+
+            for (Event event : events) {
+                if (coalesce(profile, event)) {
+                    continue;
+                }
+
+                LOGGER.debug(
+                        "Trigger detector {} for {}",
+                        profile.getClassName(),
+                        event.getSubject().toString());
+
+                if (agent == null) {
+                    agent = pool.acquire(profile);
+                }
+                submit(pool, new DetectionAgentContainer(
+                        event, datastore_url, profile, agent));
+                submitted++;
+                agent = null;
+            }
+
+            if (agent != null) {
+                pool.release(profile, agent);
+            }
 
         } catch (MalformedURLException
                 | InvalidProfileException ex) {
@@ -278,6 +452,80 @@ public final class ActivationController extends SafeThread
                     + profile.getClassName(),
                     ex);
         }
+        return submitted;
+    }
+
+    private void submitBatch(
+            final DetectorPool pool,
+            final DetectionAgentProfile profile,
+            final List<Event> batch,
+            final DetectionAgentInterface agent)
+            throws MalformedURLException, InvalidProfileException {
+
+        DetectionAgentInterface batch_agent = agent;
+        if (batch_agent == null) {
+            batch_agent = pool.acquire(profile);
+        }
+
+        submit(pool, new DetectionAgentContainer(
+                batch, config.getDatastoreUrl(), profile,
+                (BatchDetectionAgentInterface) batch_agent));
+    }
+
+    /**
+     * Try to merge this event in a job that is still waiting for the same
+     * profile and subject.
+     *
+     * @param profile
+     * @param event
+     * @return true if the event was merged in a queued job
+     */
+    private boolean coalesce(
+            final DetectionAgentProfile profile, final Event event) {
+
+        DetectionAgentContainer queued = queued_jobs.get(
+                new JobKey(profile, event.getSubject()));
+
+        if (queued != null && queued.coalesce(event)) {
+            coalesced_jobs.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Register the job in the table of queued jobs, then submit it to the
+     * executor.
+     *
+     * @param pool the pool that provided the detection agent
+     * @param job
+     */
+    private void submit(
+            final DetectorPool pool,
+            final DetectionAgentContainer job) {
+
+        DetectionAgentProfile profile = job.getProfile();
+        for (Event event : job.getEvents()) {
+            queued_jobs.put(new JobKey(profile, event.getSubject()), job);
+        }
+
+        job.setListener(new JobTracker(pool));
+        job.setDatastoreFormat(config.getDatastoreFormat());
+        if (config.isDatastoreLocalBinding()) {
+            job.setLocalDatastore(local_datastore);
+        }
+        executor.submit(job);
+    }
+
+    /**
+     * Set the request handler of the datastore, that jobs executed in this
+     * JVM can use directly (without HTTP), if
+     * Config.datastore_local_binding is true.
+     *
+     * @param local_datastore
+     */
+    public void setLocalDatastore(final ServerInterface local_datastore) {
+        this.local_datastore = local_datastore;
     }
 
     /**
@@ -300,7 +548,7 @@ public final class ActivationController extends SafeThread
     public void testProfiles()
             throws InvalidProfileException {
 
-        for (DetectionAgentProfile profile : profiles.values()) {
+        for (DetectionAgentProfile profile : getProfiles()) {
             try {
                 DetectionAgentInterface new_task = profile.createInstance();
                 LOGGER.debug(new_task.toString());
@@ -320,7 +568,9 @@ public final class ActivationController extends SafeThread
      */
     @Override
     public List<DetectionAgentProfile> getProfiles() {
-        return new LinkedList<>(profiles.values());
+        synchronized (profiles) {
+            return new LinkedList<>(profiles.values());
+        }
     }
 
     /**
@@ -330,31 +580,51 @@ public final class ActivationController extends SafeThread
      */
     @Override
     public void setAgentProfile(final DetectionAgentProfile profile) {
-        this.profiles.put(profile.getLabel(), profile);
+        synchronized (profiles) {
+            this.profiles.put(profile.getLabel(), profile);
+            this.updateIndex();
+        }
     }
 
 
+    /**
+     * Rebuild the trigger index and the pool of detectors after the profiles
+     * were modified.
+     * Must be called while holding the lock on profiles.
+     */
+    private void updateIndex() {
+        this.trigger_index = new TriggerIndex(profiles.values());
+        this.detector_pool = new DetectorPool(
+                profiles.values(), config.getMaxThreads());
+        this.trigger_times.setTimeToLive(
+                1000L * trigger_index.getMaxTriggerInterval());
+    }
+
     /**
      * Get the list of received events (new data or new evidence reports).
      * Used mainly for testing.
      * @return
      */
     Map<String, Map<Map, Event>> getEvents() {
-        return this.events;
+        return this.events.getEvents();
     }
 
-    /**
-     * Get the map of lastTriggeredAgents.
-     * Used for testing.
-     * @return
-     */
-    Map<String, Long> getLastTimeTriggered() {
-        return this.last_time_triggered;
+    @Override
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("activation.triggers.size", trigger_times.size());
+        status.put("activation.triggers.capacity", trigger_times.capacity());
+        status.put("activation.triggers.evictions", trigger_times.evictions());
+        status.put("activation.throttled", throttled.get());
+        return status;
     }
 
     @Override
     public Map<String, Object> getExecutorStatus() {
-        return this.executor.getStatus();
+        Map<String, Object> status = this.executor.getStatus();
+        status.put("executor.jobs.coalesced", coalesced_jobs.get());
+        status.putAll(job_statistics.getStatus());
+        return status;
     }
 
     @Override
@@ -371,6 +641,11 @@ public final class ActivationController extends SafeThread
         synchronized (this) {
             this.running = true;
         }
+
+        // process the events that were received during the pause
+        if (event_mode && pending.compareAndSet(false, true)) {
+            wakeup.release();
+        }
     }
 
     @Override
@@ -396,15 +671,56 @@ public final class ActivationController extends SafeThread
                         (final File dir, final String name) ->
                                 name.endsWith(".detection.yml"));
 
-        profiles.clear();
-        for (File file : detection_agent_files) {
-            try {
-                setAgentProfile(DetectionAgentProfile.fromFile(file));
-            } catch (FileNotFoundException ex) {
-                LOGGER.warn("File does not exist anymore: "
-                        + file.getAbsolutePath());
+        synchronized (profiles) {
+            profiles.clear();
+            for (File file : detection_agent_files) {
+                try {
+                    DetectionAgentProfile profile =
+                            DetectionAgentProfile.fromFile(file);
+                    profiles.put(profile.getLabel(), profile);
+                } catch (FileNotFoundException ex) {
+                    LOGGER.warn("File does not exist anymore: "
+                            + file.getAbsolutePath());
+                }
+            }
+            this.updateIndex();
+            LOGGER.info("Found " + profiles.size() + " detection agents ...");
+        }
+    }
+
+    /**
+     * Keeps the table of queued jobs up to date, and returns the detection
+     * agent to the pool when the job is finished.
+     */
+    private final class JobTracker
+            implements DetectionAgentContainer.JobListener {
+
+        private final DetectorPool pool;
+
+        JobTracker(final DetectorPool pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public void started(final DetectionAgentContainer job) {
+            DetectionAgentProfile profile = job.getProfile();
+            for (Event event : job.getEvents()) {
+                queued_jobs.remove(
+                        new JobKey(profile, event.getSubject()), job);
             }
         }
-        LOGGER.info("Found " + profiles.size() + " detection agents ...");
+
+        @Override
+        public void executed(
+                final DetectionAgentContainer job, final long wait,
+                final long execution) {
+            job_statistics.record(
+                    job.getProfile().getLabel(), wait, execution);
+        }
+
+        @Override
+        public void finished(final DetectionAgentContainer job) {
+            pool.release(job.getProfile(), job.getAgent());
+        }
     }
 }
@@ -48,12 +48,34 @@ public interface ActivationControllerInterface {
      */
     void notifyRawData(final RawData data);
 
+    /**
+     * Trigger required tasks for these new evidences. The activation is
+     * notified only once for the whole batch.
+     *
+     * @param evidences
+     */
+    void notifyEvidence(final Evidence[] evidences);
+
+    /**
+     * Trigger required tasks for these new RawData. The activation is
+     * notified only once for the whole batch.
+     *
+     * @param data
+     */
+    void notifyRawData(final RawData[] data);
+
     /**
      *
      * @return
      */
     List<DetectionAgentProfile> getProfiles();
 
+    /**
+     * Status of the activation controller itself.
+     * @return
+     */
+    Map<String, Object> getStatus();
+
     /**
      *
      * @return
@@ -24,15 +24,27 @@
 package be.cylab.mark.activation;
 
 import be.cylab.mark.client.Client;
+import be.cylab.mark.client.WireFormat;
+import be.cylab.mark.core.AsyncServerInterface;
+import be.cylab.mark.core.Batch;
+import be.cylab.mark.core.BatchServerInterface;
 import be.cylab.mark.core.DataAgentProfile;
 import be.cylab.mark.core.DetectionAgentProfile;
 import be.cylab.mark.core.Evidence;
+import be.cylab.mark.core.EvidenceAggregate;
+import be.cylab.mark.core.EvidencePage;
 import be.cylab.mark.core.RawData;
+import be.cylab.mark.core.SequentialBatch;
 import be.cylab.mark.core.ServerInterface;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import org.bson.types.ObjectId;
 
 /**
@@ -42,16 +54,26 @@ import org.bson.types.ObjectId;
  * For example: link detection report to detection profile
  *
  * A ClientWrapper object is provided to the detection algorithms by the
- * DetectionAgentContainer.
+ * DetectionAgentContainer. It wraps either the HTTP client, or a direct
+ * binding to the datastore when the detector runs in the same JVM.
  *
  * @author tibo
  */
-public final class ClientWrapper implements ServerInterface {
+public final class ClientWrapper
+        implements BatchServerInterface, AsyncServerInterface {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // position of the after and limit parameters of the paged findRawData
+    private static final int PARAM_AFTER = 4;
+    private static final int PARAM_LIMIT = 5;
 
     private final DetectionAgentProfile profile;
-    private final Client client;
+    private final ServerInterface client;
+    private final AsyncServerInterface async_client;
     private final JsonRequestListener request_listener;
     private final ArrayList<String> requests = new ArrayList<>();
+    private final boolean reset_requests;
 
     /**
      *
@@ -62,10 +84,51 @@ public final class ClientWrapper implements ServerInterface {
             final URL server_url,
             final DetectionAgentProfile profile) {
 
-        this.client = new Client(server_url);
+        this(server_url, profile, false, WireFormat.JSON);
+    }
+
+    /**
+     *
+     * @param server_url
+     * @param profile
+     * @param reset_requests if true, the list of requests is cleared each
+     * time an evidence is added (used for batch detectors, that add one
+     * evidence per subject).
+     * @param format wire format used to communicate with the server
+     */
+    ClientWrapper(
+            final URL server_url,
+            final DetectionAgentProfile profile,
+            final boolean reset_requests,
+            final String format) {
+
+        Client http_client = new Client(server_url, format);
+        this.client = http_client;
+        this.async_client = http_client;
         this.profile = profile;
+        this.reset_requests = reset_requests;
         this.request_listener = new JsonRequestListener();
-        this.client.getJsonRpcClient().setRequestListener(request_listener);
+        http_client.getJsonRpcClient().setRequestListener(request_listener);
+    }
+
+    /**
+     * Wrap an in-process binding to the datastore.
+     *
+     * @param datastore
+     * @param profile
+     * @param reset_requests
+     */
+    ClientWrapper(
+            final LocalDatastore datastore,
+            final DetectionAgentProfile profile,
+            final boolean reset_requests) {
+
+        this.client = datastore;
+        this.async_client = datastore;
+        this.profile = profile;
+        this.reset_requests = reset_requests;
+        this.request_listener = new JsonRequestListener();
+        datastore.setRequestListener(request_listener);
     }
 
 
@@ -76,12 +139,43 @@ public final class ClientWrapper implements ServerInterface {
      */
     @Override
     public void addEvidence(final Evidence evidence) throws Throwable {
-        evidence.setProfile(profile);
-        evidence.setLabel(profile.getLabel());
-        evidence.setRequests(requests);
+        prepare(new Evidence[]{evidence});
         client.addEvidence(evidence);
     }
 
+    /**
+     * All evidences are linked to the profile, and to the requests performed
+     * so far.
+     *
+     * @param evidences
+     * @throws Throwable
+     */
+    @Override
+    public void addEvidence(final Evidence[] evidences) throws Throwable {
+        prepare(evidences);
+        client.addEvidence(evidences);
+    }
+
+    /**
+     * Link evidences to the profile, and to the requests performed so far.
+     * @param evidences
+     */
+    private void prepare(final Evidence[] evidences) {
+        for (Evidence evidence : evidences) {
+            evidence.setProfile(profile);
+            evidence.setLabel(profile.getLabel());
+            if (reset_requests) {
+                evidence.setRequests(new ArrayList<>(requests));
+            } else {
+                evidence.setRequests(requests);
+            }
+        }
+
+        if (reset_requests) {
+            requests.clear();
+        }
+    }
+
     /**
      *
      * @return
@@ -112,6 +206,16 @@ public final class ClientWrapper implements ServerInterface {
         client.addRawData(data);
     }
 
+    /**
+     *
+     * @param data
+     * @throws Throwable
+     */
+    @Override
+    public void addRawData(final RawData[] data) throws Throwable {
+        client.addRawData(data);
+    }
+
     /**
      *
      * @param bytes
@@ -155,6 +259,93 @@ public final class ClientWrapper implements ServerInterface {
         return data;
     }
 
+    /**
+     * Only one request is saved for all the pages of a query: when the first
+     * page is fetched (after is null), the equivalent unpaged request
+     * (label, subject, from, till, fields) is saved.
+     *
+     * @param label
+     * @param subject
+     * @param from
+     * @param till
+     * @param after
+     * @param limit
+     * @param fields
+     * @return
+     * @throws Throwable
+     */
+    @Override
+    public RawData[] findRawData(
+            final String label, final Map<String, String> subject,
+            final long from, final long till, final String after,
+            final int limit, final String[] fields) throws Throwable {
+        RawData[] data = client.findRawData(
+                label, subject, from, till, after, limit, fields);
+        if (after == null) {
+            requests.add(unpaged(request_listener.getLastRequest()));
+        }
+        return data;
+    }
+
+    /**
+     * Remove the after and limit parameters from a paged findRawData
+     * request, so it describes the window and fields that were queried.
+     *
+     * @param request JSON-RPC representation of the paged request
+     * @return the request without paging parameters
+     * @throws IOException if the request cannot be parsed
+     */
+    private static String unpaged(final String request) throws IOException {
+        ObjectNode node = (ObjectNode) MAPPER.readTree(request);
+        ArrayNode params = (ArrayNode) node.get("params");
+        if (params == null || params.size() <= PARAM_LIMIT) {
+            return request;
+        }
+
+        params.remove(PARAM_LIMIT);
+        params.remove(PARAM_AFTER);
+        return node.toString();
+    }
+
+    /**
+     *
+     * @param label
+     * @param subject
+     * @param from
+     * @param till
+     * @param fields
+     * @return
+     * @throws Throwable
+     */
+    @Override
+    public RawData[] findRawData(
+            final String label, final Map<String, String> subject,
+            final long from, final long till, final String[] fields)
+            throws Throwable {
+        RawData[] data = client.findRawData(label, subject, from, till, fields);
+        requests.add(request_listener.getLastRequest());
+        return data;
+    }
+
+    /**
+     * The request is saved, as it identifies the data that was counted.
+     *
+     * @param label
+     * @param subject
+     * @param from
+     * @param till
+     * @return
+     * @throws Throwable
+     */
+    @Override
+    public long countRawData(
+            final String label, final Map<String, String> subject,
+            final long from, final long till) throws Throwable {
+        long count = client.countRawData(label, subject, from, till);
+        requests.add(request_listener.getLastRequest());
+        return count;
+    }
+
     /**
      *
      * @param label
@@ -185,6 +376,22 @@ public final class ClientWrapper implements ServerInterface {
         return client.findEvidenceSince(label, subject, time);
     }
 
+    /**
+     *
+     * @param label
+     * @param subject
+     * @param from
+     * @param till
+     * @return
+     * @throws Throwable
+     */
+    @Override
+    public EvidenceAggregate aggregateEvidence(
+            final String label, final Map<String, String> subject,
+            final long from, final long till) throws Throwable {
+        return client.aggregateEvidence(label, subject, from, till);
+    }
+
     /**
      *
      * @param label
@@ -209,6 +416,19 @@ public final class ClientWrapper implements ServerInterface {
         return client.findEvidence(label, page);
     }
 
+    /**
+     *
+     * @param label
+     * @param token
+     * @return
+     * @throws Throwable
+     */
+    @Override
+    public EvidencePage findEvidencePage(
+            final String label, final String token) throws Throwable {
+        return client.findEvidencePage(label, token);
+    }
+
     /**
      *
      * @param id
@@ -383,4 +603,149 @@ public final class ClientWrapper implements ServerInterface {
 
         return client.sources();
     }
+
+    /**
+     * Create a batch of queries. With the HTTP client, all queries are sent
+     * in a single JSON-RPC batch request. The queries are recorded like
+     * normal requests when the batch is executed.
+     *
+     * @return
+     */
+    @Override
+    public Batch batch() {
+        if (client instanceof BatchServerInterface) {
+            return new RecordingBatch(((BatchServerInterface) client).batch());
+        }
+
+        return new RecordingBatch(new SequentialBatch(client));
+    }
+
+    /**
+     * Record the request that was just built by the client, like
+     * findRawData does. Asynchronous requests are built (and sent to the
+     * listener) in the calling thread, before the asynchronous method
+     * returns.
+     */
+    private <T> CompletableFuture<T> record(final CompletableFuture<T> result) {
+        requests.add(request_listener.getLastRequest());
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<Void> addRawDataAsync(final RawData data) {
+        return async_client.addRawDataAsync(data);
+    }
+
+    @Override
+    public CompletableFuture<Void> addRawDataAsync(final RawData[] data) {
+        return async_client.addRawDataAsync(data);
+    }
+
+    @Override
+    public CompletableFuture<Void> addEvidenceAsync(final Evidence evidence) {
+        prepare(new Evidence[]{evidence});
+        return async_client.addEvidenceAsync(evidence);
+    }
+
+    @Override
+    public CompletableFuture<Void> addEvidenceAsync(
+            final Evidence[] evidences) {
+        prepare(evidences);
+        return async_client.addEvidenceAsync(evidences);
+    }
+
+    @Override
+    public CompletableFuture<RawData[]> findRawDataAsync(
+            final String label, final Map<String, String> subject,
+            final long from, final long till) {
+        return record(
+                async_client.findRawDataAsync(label, subject, from, till));
+    }
+
+    @Override
+    public CompletableFuture<Evidence[]> findEvidenceAsync(
+            final String label, final Map<String, String> subject) {
+        return async_client.findEvidenceAsync(label, subject);
+    }
+
+    @Override
+    public CompletableFuture<Evidence[]> findEvidenceSinceAsync(
+            final String label, final Map<String, String> subject,
+            final long time) {
+        return async_client.findEvidenceSinceAsync(label, subject, time);
+    }
+
+    @Override
+    public CompletableFuture<Evidence[]> findEvidenceAsync(final String label) {
+        return async_client.findEvidenceAsync(label);
+    }
+
+    @Override
+    public CompletableFuture<Evidence> findEvidenceByIdAsync(final String id) {
+        return async_client.findEvidenceByIdAsync(id);
+    }
+
+    @Override
+    public CompletableFuture<Evidence[]> findLastEvidencesAsync(
+            final String label, final Map<String, String> subject) {
+        return async_client.findLastEvidencesAsync(label, subject);
+    }
+
+    /**
+     * Wraps a batch to record the requests that are sent.
+     */
+    private class RecordingBatch implements Batch {
+
+        private final Batch batch;
+
+        RecordingBatch(final Batch batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public CompletableFuture<RawData[]> findRawData(
+                final String label, final Map<String, String> subject,
+                final long from, final long till) {
+            return batch.findRawData(label, subject, from, till);
+        }
+
+        @Override
+        public CompletableFuture<Evidence[]> findEvidence(
+                final String label, final Map<String, String> subject) {
+            return batch.findEvidence(label, subject);
+        }
+
+        @Override
+        public CompletableFuture<Evidence[]> findEvidenceSince(
+                final String label, final Map<String, String> subject,
+                final long time) {
+            return batch.findEvidenceSince(label, subject, time);
+        }
+
+        @Override
+        public CompletableFuture<Evidence[]> findLastEvidences(
+                final String label, final Map<String, String> subject) {
+            return batch.findLastEvidences(label, subject);
+        }
+
+        @Override
+        public CompletableFuture<Evidence[]> findEvidence(final String label) {
+            return batch.findEvidence(label);
+        }
+
+        @Override
+        public CompletableFuture<Evidence> findEvidenceById(final String id) {
+            return batch.findEvidenceById(id);
+        }
+
+        @Override
+        public void execute() throws Throwable {
+            request_listener.startRecording();
+            try {
+                batch.execute();
+            } finally {
+                requests.addAll(request_listener.stopRecording());
+            }
+        }
+    }
 }
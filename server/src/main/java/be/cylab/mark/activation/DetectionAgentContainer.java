@@ -1,16 +1,27 @@
 package be.cylab.mark.activation;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.net.URL;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import be.cylab.mark.core.BatchDetectionAgentInterface;
 import be.cylab.mark.core.DetectionAgentInterface;
 import be.cylab.mark.core.DetectionAgentProfile;
 import be.cylab.mark.core.Event;
 import be.cylab.mark.core.ServerInterface;
+import be.cylab.mark.client.WireFormat;
 import org.slf4j.LoggerFactory;
 
 /**
  * Container for running a detection agent.
  *
+ * A container usually holds a single event. If the agent implements
+ * BatchDetectionAgentInterface, the container can hold a batch of events
+ * (for different subjects), which are analyzed by a single call to the agent.
+ *
  * @author Thibault Debatty
  */
 public class DetectionAgentContainer implements Serializable, Runnable {
@@ -19,7 +30,20 @@ public class DetectionAgentContainer implements Serializable, Runnable {
     private final URL datastore_url;
     private final DetectionAgentProfile profile;
     private final DetectionAgentInterface agent;
-    private final Event event;
+
+    // time at which the job was created (and submitted)
+    private final long created = System.currentTimeMillis();
+
+    // subject => event
+    // guarded by synchronized (this)
+    private final LinkedHashMap<Map, Event> events = new LinkedHashMap<>();
+    private boolean started = false;
+    private String datastore_format = WireFormat.JSON;
+
+    // only used on the node that created the job
+    private transient JobListener listener;
+    private transient ServerInterface local_datastore;
+    private transient boolean finished = false;
 
 
     /**
@@ -35,7 +59,30 @@ public class DetectionAgentContainer implements Serializable, Runnable {
             final DetectionAgentProfile profile,
             final DetectionAgentInterface agent) {
 
-        this.event = ev;
+        this.events.put(ev.getSubject(), ev);
+        this.profile = profile;
+        this.agent = agent;
+        this.datastore_url = datastore_url;
+    }
+
+    /**
+     * Container for a batch of events (for different subjects).
+     *
+     * @param events
+     * @param datastore_url
+     * @param profile
+     * @param agent
+     */
+    public DetectionAgentContainer(
+            final Collection<Event> events,
+            final URL datastore_url,
+            final DetectionAgentProfile profile,
+            final BatchDetectionAgentInterface agent) {
+
+        for (Event ev : events) {
+            this.events.merge(
+                    ev.getSubject(), ev, DetectionAgentContainer::mostRecent);
+        }
         this.profile = profile;
         this.agent = agent;
         this.datastore_url = datastore_url;
@@ -46,16 +93,225 @@ public class DetectionAgentContainer implements Serializable, Runnable {
      */
     @Override
     public final void run() {
-        ServerInterface datastore = new ClientWrapper(
-                datastore_url, profile);
+        Event[] evs = this.start();
+        long start = System.currentTimeMillis();
 
         try {
-            agent.analyze(event, profile, datastore);
-        } catch (Throwable ex) {
-            LoggerFactory.getLogger(this.getClass().getName()).error(
-                    "Detector failed with exception!", ex);
+            analyze(evs);
+        } finally {
+            long end = System.currentTimeMillis();
+            if (listener != null) {
+                listener.executed(this, start - created, end - start);
+            }
+            this.finish();
+        }
+    }
+
+    private void analyze(final Event[] evs) {
+        if (evs.length > 1 && agent instanceof BatchDetectionAgentInterface) {
+            // requests are reset after each evidence report, so each report
+            // only gets the requests for its own subject
+            ServerInterface datastore = getDatastore(true);
+            try {
+                ((BatchDetectionAgentInterface) agent).analyze(
+                        evs, profile, datastore);
+            } catch (Throwable ex) {
+                LoggerFactory.getLogger(this.getClass().getName()).error(
+                        "Detector failed with exception for a batch of "
+                        + evs.length + " subjects!", ex);
+            }
+            return;
+        }
+
+        for (Event ev : evs) {
+            ServerInterface datastore = getDatastore(false);
+
+            try {
+                agent.analyze(ev, profile, datastore);
+            } catch (Throwable ex) {
+                LoggerFactory.getLogger(this.getClass().getName()).error(
+                        "Detector failed with exception!", ex);
+            }
+        }
+    }
+
+
+    /**
+     * Use the provided request handler of the datastore directly (without
+     * HTTP). As this field is transient, it is lost if the job is serialized
+     * and executed by another node, which will use HTTP.
+     *
+     * @param local_datastore
+     */
+    final void setLocalDatastore(final ServerInterface local_datastore) {
+        this.local_datastore = local_datastore;
+    }
+
+    /**
+     * Set the wire format (WireFormat.JSON, SMILE or CBOR) used to
+     * communicate with the datastore over HTTP.
+     *
+     * @param datastore_format
+     */
+    final void setDatastoreFormat(final String datastore_format) {
+        this.datastore_format = datastore_format;
+    }
+
+    private ServerInterface getDatastore(final boolean reset_requests) {
+        if (local_datastore != null) {
+            return new ClientWrapper(
+                    new LocalDatastore(local_datastore, datastore_url),
+                    profile,
+                    reset_requests);
+        }
+
+        return new ClientWrapper(
+                datastore_url, profile, reset_requests, datastore_format);
+    }
+
+    /**
+     * Set the listener that will be informed when this job starts and
+     * finishes.
+     * @param listener
+     */
+    final void setListener(final JobListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Try to merge this new event in the job: if the job did not start yet,
+     * it will run only once per subject, with the most recent event.
+     *
+     * @param new_event
+     * @return false if the job already started (or was sent to another node)
+     */
+    final synchronized boolean coalesce(final Event new_event) {
+        if (started) {
+            return false;
         }
+
+        events.merge(
+                new_event.getSubject(),
+                new_event,
+                DetectionAgentContainer::mostRecent);
+        return true;
+    }
+
+    private static Event mostRecent(final Event saved, final Event other) {
+        if (saved.getTimestamp() < other.getTimestamp()) {
+            return other;
+        }
+
+        return saved;
     }
 
+    /**
+     * Get the events that triggered the job (one per subject).
+     * @return
+     */
+    final synchronized Event[] getEvents() {
+        return events.values().toArray(new Event[events.size()]);
+    }
+
+    /**
+     * Mark the job as started, so new events cannot be merged anymore.
+     * @return the events to analyze
+     */
+    private Event[] start() {
+        boolean was_started;
+        synchronized (this) {
+            was_started = started;
+            started = true;
+        }
+
+        if (!was_started && listener != null) {
+            listener.started(this);
+        }
+        return getEvents();
+    }
+
+    /**
+     * The job will not be executed (for example because the queue of the
+     * executor is full): inform the listener as if the job was executed.
+     */
+    final void discard() {
+        this.start();
+        this.finish();
+    }
+
+    /**
+     * Inform the listener (only once) that the job is finished (or was sent
+     * to another node for execution).
+     */
+    private void finish() {
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+        }
 
+        if (listener != null) {
+            listener.finished(this);
+        }
+    }
+
+    /**
+     * Get the detection agent used by this job.
+     * @return
+     */
+    final DetectionAgentInterface getAgent() {
+        return agent;
+    }
+
+    /**
+     * Get the detection profile of this job.
+     * @return
+     */
+    final DetectionAgentProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * When the job is serialized, it is sent to another node for execution
+     * (Ignite): from now on the local copy cannot be modified anymore.
+     *
+     * @param out
+     * @throws IOException if the job cannot be serialized
+     */
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        this.start();
+        synchronized (this) {
+            out.defaultWriteObject();
+        }
+
+        // the local instance of the agent is not used anymore
+        this.finish();
+    }
+
+    /**
+     * Informed when a job starts and finishes.
+     */
+    interface JobListener {
+
+        /**
+         * The job started (or was sent to another node for execution).
+         * @param job
+         */
+        void started(DetectionAgentContainer job);
+
+        /**
+         * The job was executed (only for jobs executed locally).
+         * @param job
+         * @param wait time between creation and start of the job (ms)
+         * @param execution execution time of the job (ms)
+         */
+        void executed(DetectionAgentContainer job, long wait, long execution);
+
+        /**
+         * The job is finished (or was sent to another node for execution).
+         * @param job
+         */
+        void finished(DetectionAgentContainer job);
+    }
 }
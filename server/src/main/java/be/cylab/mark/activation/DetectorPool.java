@@ -0,0 +1,206 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.activation;
+
+import be.cylab.mark.core.DetectionAgentInterface;
+import be.cylab.mark.core.DetectionAgentProfile;
+import be.cylab.mark.core.InvalidProfileException;
+import be.cylab.mark.core.ThreadSafe;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Provides the instances of detection agents for the jobs.
+ *
+ * The class of each profile is resolved only once, when the pool is built,
+ * and the constructor is kept as a method handle. Agents annotated with
+ * {@link ThreadSafe} are instantiated once and shared by all jobs of the
+ * profile. Other agents are taken from a pool of idle instances, and
+ * returned to the pool when the job is finished.
+ *
+ * Like the TriggerIndex, the pool is immutable and rebuilt by the activation
+ * controller when profiles are modified. Instances released to an old pool
+ * are simply dropped.
+ *
+ * @author tibo
+ */
+final class DetectorPool {
+
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(DetectorPool.class);
+
+    private static final MethodType CONSTRUCTOR_TYPE =
+            MethodType.methodType(DetectionAgentInterface.class);
+
+    // profile => instances (built once, then read only)
+    private final Map<DetectionAgentProfile, Instances> instances =
+            new IdentityHashMap<>();
+
+    /**
+     * Build the pool for these profiles.
+     *
+     * @param profiles
+     * @param max_idle max number of idle instances kept for each profile
+     */
+    DetectorPool(
+            final Collection<DetectionAgentProfile> profiles,
+            final int max_idle) {
+
+        for (DetectionAgentProfile profile : profiles) {
+            try {
+                instances.put(profile, new Instances(profile, max_idle));
+            } catch (InvalidProfileException ex) {
+                // the error will be reported when the profile is triggered
+                LOGGER.error(ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Get an instance of the detection agent for this profile.
+     *
+     * @param profile
+     * @return
+     * @throws InvalidProfileException if the agent cannot be instantiated
+     */
+    DetectionAgentInterface acquire(final DetectionAgentProfile profile)
+            throws InvalidProfileException {
+
+        Instances profile_instances = instances.get(profile);
+        if (profile_instances == null) {
+            // profile was added after this pool was built
+            return profile.createInstance();
+        }
+
+        return profile_instances.acquire();
+    }
+
+    /**
+     * Return this instance to the pool, after the job is finished.
+     *
+     * @param profile
+     * @param agent
+     */
+    void release(
+            final DetectionAgentProfile profile,
+            final DetectionAgentInterface agent) {
+
+        Instances profile_instances = instances.get(profile);
+        if (profile_instances != null) {
+            profile_instances.release(agent);
+        }
+    }
+
+    /**
+     * Instances of the agent for a single profile.
+     */
+    private static final class Instances {
+
+        private final String class_name;
+        private final MethodHandle constructor;
+        private final DetectionAgentInterface shared;
+        private final Queue<DetectionAgentInterface> idle =
+                new ConcurrentLinkedQueue<>();
+        private final AtomicInteger idle_count = new AtomicInteger();
+        private final int max_idle;
+
+        Instances(final DetectionAgentProfile profile, final int max_idle)
+                throws InvalidProfileException {
+
+            this.class_name = profile.getClassName();
+            this.max_idle = max_idle;
+
+            Class<?> agent_class;
+            try {
+                agent_class = Class.forName(class_name);
+                this.constructor = MethodHandles.publicLookup()
+                        .findConstructor(
+                                agent_class, MethodType.methodType(void.class))
+                        .asType(CONSTRUCTOR_TYPE);
+
+            } catch (ClassNotFoundException | NoSuchMethodException
+                    | IllegalAccessException | ClassCastException
+                    | IllegalArgumentException ex) {
+                throw new InvalidProfileException(
+                        "Cannot instantiate detection agent " + class_name
+                        + " : " + ex.getMessage(),
+                        ex);
+            }
+
+            if (agent_class.isAnnotationPresent(ThreadSafe.class)) {
+                this.shared = newInstance();
+            } else {
+                this.shared = null;
+            }
+        }
+
+        DetectionAgentInterface acquire() throws InvalidProfileException {
+            if (shared != null) {
+                return shared;
+            }
+
+            DetectionAgentInterface agent = idle.poll();
+            if (agent == null) {
+                return newInstance();
+            }
+
+            idle_count.decrementAndGet();
+            return agent;
+        }
+
+        void release(final DetectionAgentInterface agent) {
+            if (agent == shared) {
+                return;
+            }
+
+            if (idle_count.incrementAndGet() > max_idle) {
+                idle_count.decrementAndGet();
+                return;
+            }
+            idle.offer(agent);
+        }
+
+        private DetectionAgentInterface newInstance()
+                throws InvalidProfileException {
+            try {
+                return (DetectionAgentInterface) constructor.invokeExact();
+            } catch (Throwable ex) {
+                InvalidProfileException invalid = new InvalidProfileException(
+                        "Cannot instantiate detection agent " + class_name
+                        + " : " + ex.getMessage());
+                invalid.initCause(ex);
+                throw invalid;
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.activation;
+
+import be.cylab.mark.core.Event;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Table of received events: label => subject => Event.
+ *
+ * For each (label, subject) pair, only the most recent event is kept. The
+ * table can be fed concurrently by all the threads of the datastore, without
+ * any global lock: labels and subjects are spread over the bins of
+ * concurrent hash maps, so two threads only contend if they insert the same
+ * (label, subject) at the same time.
+ *
+ * The activation thread periodically calls {@link #drain()} to get (and
+ * remove) the events received so far.
+ *
+ * @author tibo
+ */
+final class EventTable {
+
+    // subjects maps are also ConcurrentHashMap, so merge and remove are
+    // atomic operations
+    private final ConcurrentHashMap<String, Map<Map, Event>> events =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Add this event to the table, or replace the event that we already
+     * have for the same label and subject if the new one is more recent.
+     *
+     * @param new_event
+     */
+    void add(final Event new_event) {
+
+        while (true) {
+            // all subjects that have an event with this label
+            Map<Map, Event> subjects = events.get(new_event.getLabel());
+
+            if (subjects == null) {
+                subjects = events.computeIfAbsent(
+                        new_event.getLabel(),
+                        label -> new ConcurrentHashMap<>());
+            }
+
+            subjects.merge(
+                    new_event.getSubject(),
+                    new_event,
+                    EventTable::mostRecent);
+
+            // drain() removes the subjects map of a label when it is empty:
+            // if this happened before our merge, the event was added to a
+            // map that is no longer in the table, so add it again
+            if (events.get(new_event.getLabel()) == subjects) {
+                return;
+            }
+        }
+    }
+
+    private static Event mostRecent(final Event saved, final Event other) {
+        if (saved.getTimestamp() < other.getTimestamp()) {
+            return other;
+        }
+
+        return saved;
+    }
+
+    /**
+     * Remove and return all events currently in the table.
+     *
+     * This does not block concurrent writers: each entry is removed
+     * atomically, only if it was not replaced in the mean time. An event that
+     * is added while we drain the table is either returned now, or kept for
+     * the next call, but never lost.
+     *
+     * @return
+     */
+    Map<String, Map<Map, Event>> drain() {
+        Map<String, Map<Map, Event>> result = new HashMap<>();
+
+        for (Map.Entry<String, Map<Map, Event>> label_entry
+                : events.entrySet()) {
+
+            Map<Map, Event> drained = new HashMap<>();
+            Map<Map, Event> subjects = label_entry.getValue();
+
+            for (Map.Entry<Map, Event> entry : subjects.entrySet()) {
+                if (subjects.remove(entry.getKey(), entry.getValue())) {
+                    drained.put(entry.getKey(), entry.getValue());
+                }
+            }
+
+            if (!drained.isEmpty()) {
+                result.put(label_entry.getKey(), drained);
+            }
+
+            // remove labels that are no longer received (atomic: a
+            // concurrent add either fills the map before, or finds it
+            // removed after)
+            events.computeIfPresent(
+                    label_entry.getKey(),
+                    (label, map) -> {
+                        if (map.isEmpty()) {
+                            return null;
+                        }
+                        return map;
+                    });
+        }
+
+        return result;
+    }
+
+    /**
+     * Get a view of the current content of the table.
+     * Used mainly for testing.
+     * @return
+     */
+    Map<String, Map<Map, Event>> getEvents() {
+        return events;
+    }
+}
@@ -46,6 +46,13 @@ public interface ExecutorInterface {
      */
     boolean shutdown() throws InterruptedException;
 
+    /**
+     * Number of jobs that are waiting to be executed. Used by the activation
+     * controller to slow down when the executor cannot keep up.
+     * @return
+     */
+    int getBacklog();
+
     /**
      * Get the status of the backend executor.
      *
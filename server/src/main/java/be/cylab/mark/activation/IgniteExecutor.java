@@ -108,6 +108,11 @@ public final class IgniteExecutor implements ExecutorInterface {
         return this.ignite.executorService().awaitTermination(1, TimeUnit.DAYS);
     }
 
+    @Override
+    public int getBacklog() {
+        return ignite.cluster().metrics().getCurrentWaitingJobs();
+    }
+
     @Override
     public Map<String, Object> getStatus() {
         HashMap<String, Object> map = new HashMap<>();
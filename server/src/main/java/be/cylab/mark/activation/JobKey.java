@@ -0,0 +1,68 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.activation;
+
+import be.cylab.mark.core.DetectionAgentProfile;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Identifies the jobs for a detection profile and a subject.
+ *
+ * The profile is compared by reference, as profiles are immutable once they
+ * are loaded.
+ *
+ * @author tibo
+ */
+final class JobKey {
+
+    private final DetectionAgentProfile profile;
+    private final Map subject;
+
+    /**
+     *
+     * @param profile
+     * @param subject
+     */
+    JobKey(final DetectionAgentProfile profile, final Map subject) {
+        this.profile = profile;
+        this.subject = subject;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (!(other instanceof JobKey)) {
+            return false;
+        }
+
+        JobKey other_key = (JobKey) other;
+        return profile == other_key.profile
+                && subject.equals(other_key.subject);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(profile) * 31 + subject.hashCode();
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.activation;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Queue wait time and execution time of detection jobs, per detection
+ * profile label.
+ *
+ * Times are recorded in intervals (10 seconds by default, like the Monitor),
+ * and getStatus() reports the last complete interval. Hence the percentiles
+ * reflect the current load, and not the load since the server started.
+ *
+ * Jobs are recorded by the activation controller, when they are executed
+ * locally. With the IgniteExecutor, jobs executed by other nodes are not
+ * recorded.
+ *
+ * @author tibo
+ */
+final class JobStatistics {
+
+    private static final double[] PERCENTILES = new double[]{50, 95, 99};
+
+    /**
+     * Default duration of an interval (ms).
+     */
+    static final long DEFAULT_INTERVAL = 10000;
+
+    /**
+     * The times recorded during an interval.
+     */
+    private static final class Window {
+        private final long start;
+
+        // label => {wait, execution}
+        private final Map<String, LatencyHistogram[]> histograms =
+                new ConcurrentHashMap<>();
+
+        Window(final long start) {
+            this.start = start;
+        }
+    }
+
+    private final long interval;
+
+    // the interval in progress, and the last complete interval
+    private volatile Window current;
+    private volatile Window previous;
+
+    /**
+     * Statistics with intervals of DEFAULT_INTERVAL.
+     */
+    JobStatistics() {
+        this(DEFAULT_INTERVAL);
+    }
+
+    /**
+     *
+     * @param interval duration of an interval (ms)
+     */
+    JobStatistics(final long interval) {
+        this.interval = interval;
+        long now = System.currentTimeMillis();
+        this.current = new Window(now);
+        this.previous = new Window(now - interval);
+    }
+
+    /**
+     * Record the times (in milliseconds) for a job.
+     *
+     * @param label label of the detection profile
+     * @param wait time between creation and start of the job
+     * @param execution execution time of the job
+     */
+    void record(final String label, final long wait, final long execution) {
+
+        LatencyHistogram[] histograms = rotate().histograms.computeIfAbsent(
+                String.valueOf(label),
+                l -> new LatencyHistogram[]{
+                    new LatencyHistogram(), new LatencyHistogram()});
+
+        histograms[0].record(wait);
+        histograms[1].record(execution);
+    }
+
+    /**
+     * Get the statistics of the last complete interval, with keys like
+     * executor.profile.[label].wait.p95 or
+     * executor.profile.[label].execution.max (in milliseconds).
+     *
+     * @return
+     */
+    Map<String, Object> getStatus() {
+        rotate();
+
+        Map<String, Object> status = new HashMap<>();
+        for (Map.Entry<String, LatencyHistogram[]> entry
+                : previous.histograms.entrySet()) {
+
+            String prefix = "executor.profile." + entry.getKey();
+            status.put(prefix + ".jobs", entry.getValue()[1].getCount());
+            addHistogram(status, prefix + ".wait", entry.getValue()[0]);
+            addHistogram(status, prefix + ".execution", entry.getValue()[1]);
+        }
+        return status;
+    }
+
+    /**
+     * Start a new interval if the current one is finished.
+     *
+     * @return the current interval
+     */
+    private Window rotate() {
+        long now = System.currentTimeMillis();
+        Window window = current;
+        if (now - window.start < interval) {
+            return window;
+        }
+
+        synchronized (this) {
+            window = current;
+            if (now - window.start < interval) {
+                return window;
+            }
+
+            if (now - window.start < 2 * interval) {
+                previous = window;
+            } else {
+                // no job was recorded during the last interval
+                previous = new Window(now - interval);
+            }
+            current = new Window(now);
+            return current;
+        }
+    }
+
+    private static void addHistogram(
+            final Map<String, Object> status,
+            final String prefix,
+            final LatencyHistogram histogram) {
+
+        for (double percentile : PERCENTILES) {
+            status.put(
+                    prefix + ".p" + (int) percentile,
+                    histogram.getPercentile(percentile));
+        }
+        status.put(prefix + ".max", histogram.getMax());
+        status.put(prefix + ".total", histogram.getSum());
+    }
+}
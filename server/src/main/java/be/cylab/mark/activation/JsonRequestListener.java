@@ -25,6 +25,8 @@ package be.cylab.mark.activation;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.googlecode.jsonrpc4j.JsonRpcClient;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Used to track requests performed by the client, so we can keep track of
@@ -36,6 +38,9 @@ public final class JsonRequestListener
 
     private String last_request = "";
 
+    // requests sent since startRecording() was called, or null
+    private List<String> recorded;
+
     /**
      *
      * @param client
@@ -45,6 +50,31 @@ public final class JsonRequestListener
     public void onBeforeRequestSent(
             final JsonRpcClient client, final ObjectNode request) {
         last_request = request.toString();
+        if (recorded != null) {
+            recorded.add(last_request);
+        }
+    }
+
+    /**
+     * Start recording all requests (for example the requests of a batch,
+     * which are all sent at once).
+     */
+    public void startRecording() {
+        recorded = new ArrayList<>();
+    }
+
+    /**
+     * Stop recording requests.
+     *
+     * @return the requests sent since startRecording() was called
+     */
+    public List<String> stopRecording() {
+        List<String> result = recorded;
+        recorded = null;
+        if (result == null) {
+            return new ArrayList<>();
+        }
+        return result;
     }
 
     /**
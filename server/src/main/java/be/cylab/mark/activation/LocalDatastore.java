@@ -0,0 +1,422 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.activation;
+
+import be.cylab.mark.client.EvidenceTimeComparator;
+import be.cylab.mark.core.AsyncServerInterface;
+import be.cylab.mark.core.DataAgentProfile;
+import be.cylab.mark.core.DetectionAgentProfile;
+import be.cylab.mark.core.Evidence;
+import be.cylab.mark.core.EvidenceAggregate;
+import be.cylab.mark.core.EvidencePage;
+import be.cylab.mark.core.RawData;
+import be.cylab.mark.core.ServerInterface;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bson.types.ObjectId;
+
+/**
+ * In-process binding to the datastore, for detectors that run in the same
+ * JVM as the server (ThreadsExecutor or VirtualThreadsExecutor).
+ *
+ * Calls are forwarded directly to the RequestHandler, without HTTP nor JSON
+ * serialization. The results are post-processed like in the Client (sorting
+ * of evidences), and a JSON-RPC representation of queries is sent to the
+ * request listener, so ClientWrapper can record the requests used to
+ * produce an evidence report, as it does with the HTTP client.
+ *
+ * Asynchronous methods also call the request handler directly, and return
+ * a future that is already complete.
+ *
+ * @author tibo
+ */
+final class LocalDatastore
+        implements ServerInterface, AsyncServerInterface {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final AtomicLong REQUEST_ID = new AtomicLong();
+
+    private final ServerInterface handler;
+    private final URL url;
+    private JsonRequestListener request_listener;
+
+    /**
+     *
+     * @param handler the request handler of the datastore
+     * @param url the URL of the datastore, returned by getURL()
+     */
+    LocalDatastore(final ServerInterface handler, final URL url) {
+        this.handler = handler;
+        this.url = url;
+    }
+
+    /**
+     * Set the listener that will receive the JSON-RPC representation of
+     * queries.
+     * @param request_listener
+     */
+    void setRequestListener(final JsonRequestListener request_listener) {
+        this.request_listener = request_listener;
+    }
+
+    /**
+     * Build the JSON-RPC request corresponding to this call, and send it to
+     * the listener (if any).
+     */
+    private void record(final String method, final Object... params) {
+        if (request_listener == null) {
+            return;
+        }
+
+        ObjectNode request = MAPPER.createObjectNode();
+        request.put("id", String.valueOf(REQUEST_ID.incrementAndGet()));
+        request.put("jsonrpc", "2.0");
+        request.put("method", method);
+        ArrayNode params_node = request.putArray("params");
+        for (Object param : params) {
+            params_node.add(MAPPER.valueToTree(param));
+        }
+        request_listener.onBeforeRequestSent(null, request);
+    }
+
+    @Override
+    public String test() throws Throwable {
+        return handler.test();
+    }
+
+    @Override
+    public void testString(final String data) throws Throwable {
+        handler.testString(data);
+    }
+
+    @Override
+    public void addRawData(final RawData data) throws Throwable {
+        handler.addRawData(data);
+    }
+
+    @Override
+    public void addEvidence(final Evidence evidence) throws Throwable {
+        handler.addEvidence(evidence);
+    }
+
+    @Override
+    public void addRawData(final RawData[] data) throws Throwable {
+        handler.addRawData(data);
+    }
+
+    @Override
+    public void addEvidence(final Evidence[] evidences) throws Throwable {
+        handler.addEvidence(evidences);
+    }
+
+    @Override
+    public ObjectId addFile(final byte[] bytes, final String filename)
+            throws Throwable {
+        return handler.addFile(bytes, filename);
+    }
+
+    @Override
+    public byte[] findFile(final ObjectId file_id) throws Throwable {
+        record("findFile", file_id.toString());
+        return handler.findFile(file_id);
+    }
+
+    @Override
+    public RawData[] findLastRawData() throws Throwable {
+        record("findLastRawData");
+        return handler.findLastRawData();
+    }
+
+    @Override
+    public RawData[] findRawData(
+            final String label, final Map<String, String> subject,
+            final long from, final long till) throws Throwable {
+
+        record("findRawData", label, subject, from, till);
+        return handler.findRawData(label, subject, from, till);
+    }
+
+    @Override
+    public RawData[] findRawData(
+            final String label, final Map<String, String> subject,
+            final long from, final long till, final String after,
+            final int limit, final String[] fields) throws Throwable {
+
+        record("findRawData", label, subject, from, till, after, limit, fields);
+        return handler.findRawData(
+                label, subject, from, till, after, limit, fields);
+    }
+
+    @Override
+    public RawData[] findRawData(
+            final String label, final Map<String, String> subject,
+            final long from, final long till, final String[] fields)
+            throws Throwable {
+
+        record("findRawData", label, subject, from, till, fields);
+        return handler.findRawData(label, subject, from, till, fields);
+    }
+
+    @Override
+    public long countRawData(
+            final String label, final Map<String, String> subject,
+            final long from, final long till) throws Throwable {
+
+        record("countRawData", label, subject, from, till);
+        return handler.countRawData(label, subject, from, till);
+    }
+
+    @Override
+    public Evidence[] findEvidence(
+            final String label, final Map<String, String> subject)
+            throws Throwable {
+
+        record("findEvidence", label, subject);
+        Evidence[] evidences = handler.findEvidence(label, subject);
+        Arrays.sort(evidences, new EvidenceTimeComparator());
+        return evidences;
+    }
+
+    @Override
+    public Evidence[] findEvidenceSince(
+            final String label, final Map<String, String> subject,
+            final long time) throws Throwable {
+
+        record("findEvidenceSince", label, subject, time);
+        Evidence[] evidences = handler.findEvidenceSince(label, subject, time);
+        Arrays.sort(evidences, new EvidenceTimeComparator());
+        return evidences;
+    }
+
+    @Override
+    public EvidenceAggregate aggregateEvidence(
+            final String label, final Map<String, String> subject,
+            final long from, final long till) throws Throwable {
+
+        record("aggregateEvidence", label, subject, from, till);
+        return handler.aggregateEvidence(label, subject, from, till);
+    }
+
+    @Override
+    public Evidence[] findEvidence(final String label) throws Throwable {
+        record("findEvidence", label);
+        return handler.findEvidence(label);
+    }
+
+    @Override
+    public Evidence[] findEvidence(final String label, final int page)
+            throws Throwable {
+        record("findEvidence", label, page);
+        return handler.findEvidence(label, page);
+    }
+
+    @Override
+    public EvidencePage findEvidencePage(
+            final String label, final String token) throws Throwable {
+        record("findEvidencePage", label, token);
+        return handler.findEvidencePage(label, token);
+    }
+
+    @Override
+    public Evidence findEvidenceById(final String id) throws Throwable {
+        record("findEvidenceById", id);
+        return handler.findEvidenceById(id);
+    }
+
+    @Override
+    public URL getURL() {
+        return url;
+    }
+
+    @Override
+    public Evidence[] findLastEvidences() throws Throwable {
+        record("findLastEvidences");
+        return handler.findLastEvidences();
+    }
+
+    @Override
+    public Evidence[] findLastEvidences(
+            final String label, final Map<String, String> subject)
+            throws Throwable {
+        record("findLastEvidences", label, subject);
+        return handler.findLastEvidences(label, subject);
+    }
+
+    @Override
+    public Object getFromCache(final String key) throws Throwable {
+        return handler.getFromCache(key);
+    }
+
+    @Override
+    public void storeInCache(final String key, final Object value)
+            throws Throwable {
+        handler.storeInCache(key, value);
+    }
+
+    @Override
+    public boolean compareAndSwapInCache(
+            final String key, final Object new_value, final Object old_value)
+            throws Throwable {
+        return handler.compareAndSwapInCache(key, new_value, old_value);
+    }
+
+    @Override
+    public Map<String, Object> status() throws Throwable {
+        return handler.status();
+    }
+
+    @Override
+    public DetectionAgentProfile[] activation() throws Throwable {
+        return handler.activation();
+    }
+
+    @Override
+    public void setAgentProfile(final DetectionAgentProfile profile)
+            throws Throwable {
+        handler.setAgentProfile(profile);
+    }
+
+    @Override
+    public DataAgentProfile[] sources() throws Throwable {
+        return handler.sources();
+    }
+
+    @Override
+    public void pause() throws Throwable {
+        handler.pause();
+    }
+
+    @Override
+    public void resume() throws Throwable {
+        handler.resume();
+    }
+
+    @Override
+    public void reload() throws Throwable {
+        handler.reload();
+    }
+
+    @Override
+    public List<Map> history() throws Throwable {
+        return handler.history();
+    }
+
+    /**
+     * A call to the datastore.
+     * @param <T>
+     */
+    private interface Call<T> {
+        T call() throws Throwable;
+    }
+
+    /**
+     * Direct calls are cheap (no network), so they are simply performed in
+     * the calling thread: the returned future is already complete.
+     */
+    private static <T> CompletableFuture<T> now(final Call<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            result.complete(call.call());
+        } catch (Throwable ex) {
+            result.completeExceptionally(ex);
+        }
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<Void> addRawDataAsync(final RawData data) {
+        return now(() -> {
+            this.addRawData(data);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> addRawDataAsync(final RawData[] data) {
+        return now(() -> {
+            this.addRawData(data);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> addEvidenceAsync(final Evidence evidence) {
+        return now(() -> {
+            this.addEvidence(evidence);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> addEvidenceAsync(
+            final Evidence[] evidences) {
+        return now(() -> {
+            this.addEvidence(evidences);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<RawData[]> findRawDataAsync(
+            final String label, final Map<String, String> subject,
+            final long from, final long till) {
+        return now(() -> this.findRawData(label, subject, from, till));
+    }
+
+    @Override
+    public CompletableFuture<Evidence[]> findEvidenceAsync(
+            final String label, final Map<String, String> subject) {
+        return now(() -> this.findEvidence(label, subject));
+    }
+
+    @Override
+    public CompletableFuture<Evidence[]> findEvidenceSinceAsync(
+            final String label, final Map<String, String> subject,
+            final long time) {
+        return now(() -> this.findEvidenceSince(label, subject, time));
+    }
+
+    @Override
+    public CompletableFuture<Evidence[]> findEvidenceAsync(final String label) {
+        return now(() -> this.findEvidence(label));
+    }
+
+    @Override
+    public CompletableFuture<Evidence> findEvidenceByIdAsync(final String id) {
+        return now(() -> this.findEvidenceById(id));
+    }
+
+    @Override
+    public CompletableFuture<Evidence[]> findLastEvidencesAsync(
+            final String label, final Map<String, String> subject) {
+        return now(() -> this.findLastEvidences(label, subject));
+    }
+}
@@ -23,34 +23,149 @@
  */
 package be.cylab.mark.activation;
 
+import be.cylab.mark.server.Config;
+import com.google.inject.Inject;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Executes the jobs with a pool of threads on the local machine.
+ *
+ * Jobs wait in a bounded queue (Config.executor_queue_size). When the queue
+ * is full, Config.executor_overload_policy defines what happens with a new
+ * job:
+ * <ul>
+ * <li>drop-oldest : the oldest job in the queue is dropped</li>
+ * <li>drop-newest : the new job is dropped</li>
+ * <li>caller-runs : the new job is executed by the thread that submits it
+ * (the activation controller), which also slows down activation</li>
+ * </ul>
+ *
+ * Jobs for the same detector and subject are merged by the activation
+ * controller, before they are submitted.
  *
  * @author tibo
  */
 public final class ThreadsExecutor implements ExecutorInterface {
 
+    /**
+     * Max time (ms) to wait for the queued and running jobs when the
+     * executor is stopped.
+     */
+    private static final long SHUTDOWN_TIMEOUT = 10000;
+
     private final int threads_count =
             Runtime.getRuntime().availableProcessors() * 2 - 1;
-    private final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
-    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(
-            threads_count, threads_count, 0L, TimeUnit.SECONDS, queue);
+    private final int queue_size;
+    private final String overload_policy;
+    private final BlockingQueue<Runnable> queue;
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong caller_runs = new AtomicLong();
+
+    /**
+     * Executor with default queue size and overload policy.
+     */
+    public ThreadsExecutor() {
+        this(new Config());
+    }
+
+    /**
+     *
+     * @param config
+     */
+    @Inject
+    public ThreadsExecutor(final Config config) {
+        this.queue_size = config.getExecutorQueueSize();
+        this.overload_policy = config.getExecutorOverloadPolicy();
+        this.queue = new LinkedBlockingQueue<>(queue_size);
+        this.executor = new ThreadPoolExecutor(
+                threads_count, threads_count, 0L, TimeUnit.SECONDS, queue,
+                (job, pool) -> rejected(job));
+
+        // jobs may be added directly to the queue (drop-oldest), so all
+        // threads must be running
+        this.executor.prestartAllCoreThreads();
+    }
 
     @Override
     public void submit(final Runnable job) {
-        executor.submit(job);
+        executor.execute(job);
+    }
+
+    /**
+     * Called when the queue is full.
+     * @param job
+     */
+    private void rejected(final Runnable job) {
+        if (executor.isShutdown()) {
+            drop(job);
+            return;
+        }
+
+        if (overload_policy.equals(Config.OVERLOAD_CALLER_RUNS)) {
+            caller_runs.incrementAndGet();
+            job.run();
+            return;
+        }
+
+        if (overload_policy.equals(Config.OVERLOAD_DROP_NEWEST)) {
+            drop(job);
+            return;
+        }
+
+        // drop oldest
+        while (!queue.offer(job)) {
+            Runnable oldest = queue.poll();
+            if (oldest == null) {
+                drop(job);
+                return;
+            }
+            drop(oldest);
+        }
+    }
+
+    private void drop(final Runnable job) {
+        dropped.incrementAndGet();
+        if (job instanceof DetectionAgentContainer) {
+            ((DetectionAgentContainer) job).discard();
+        }
     }
 
     @Override
     public boolean shutdown() throws InterruptedException {
+        return shutdown(SHUTDOWN_TIMEOUT);
+    }
+
+    /**
+     * Wait at most timeout ms for the jobs to complete. Then the jobs that
+     * are still queued are discarded, and the running jobs are interrupted.
+     *
+     * @param timeout in ms
+     * @return true if all jobs were executed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean shutdown(final long timeout) throws InterruptedException {
         executor.shutdown();
-        return true;
+        if (executor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+            return true;
+        }
+
+        for (Runnable job : executor.shutdownNow()) {
+            drop(job);
+        }
+        return false;
+    }
+
+    @Override
+    public int getBacklog() {
+        return queue.size();
     }
 
     @Override
@@ -61,7 +176,9 @@ public final class ThreadsExecutor implements ExecutorInterface {
         map.put("executor.jobs.running", executor.getActiveCount());
         map.put("executor.jobs.executed", executor.getCompletedTaskCount());
         map.put("executor.jobs.waiting", queue.size());
+        map.put("executor.queue.capacity", queue_size);
+        map.put("executor.queue.dropped", dropped.get());
+        map.put("executor.queue.callerruns", caller_runs.get());
         return map;
     }
-
 }
@@ -0,0 +1,144 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.activation;
+
+import be.cylab.mark.core.DetectionAgentProfile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of detection profiles, by trigger label.
+ *
+ * The trigger label of each profile is compiled only once, when the index is
+ * built. The list of profiles that match a given event label is computed the
+ * first time this label is seen, then kept in cache.
+ *
+ * The index is immutable: when profiles are added or reloaded, the
+ * activation controller simply builds a new index (which also invalidates
+ * the cache).
+ *
+ * @author tibo
+ */
+final class TriggerIndex {
+
+    private static final Logger LOGGER
+            = LoggerFactory.getLogger(TriggerIndex.class);
+
+    /**
+     * Max number of event labels that we keep in cache. If there are more
+     * labels than that, the cache is simply cleared.
+     */
+    private static final int MAX_CACHED_LABELS = 10000;
+
+    private final DetectionAgentProfile[] profiles;
+    private final Pattern[] patterns;
+    private final int max_trigger_interval;
+
+    private final ConcurrentHashMap<String, List<DetectionAgentProfile>>
+            cache = new ConcurrentHashMap<>();
+
+    /**
+     * Build an index for these profiles.
+     *
+     * Profiles with an invalid trigger label (a regex that cannot be
+     * compiled) are logged and will never be triggered.
+     *
+     * @param profiles
+     */
+    TriggerIndex(final Collection<DetectionAgentProfile> profiles) {
+
+        List<DetectionAgentProfile> valid_profiles = new ArrayList<>();
+        List<Pattern> valid_patterns = new ArrayList<>();
+        int max_interval = 0;
+
+        for (DetectionAgentProfile profile : profiles) {
+            max_interval = Math.max(max_interval, profile.getTriggerInterval());
+            try {
+                valid_patterns.add(Pattern.compile(profile.getTriggerLabel()));
+                valid_profiles.add(profile);
+            } catch (PatternSyntaxException ex) {
+                LOGGER.error(
+                        "Invalid trigger label for detector "
+                        + profile.getLabel() + " : " + ex.getMessage());
+            }
+        }
+
+        this.profiles = valid_profiles.toArray(
+                new DetectionAgentProfile[valid_profiles.size()]);
+        this.patterns = valid_patterns.toArray(
+                new Pattern[valid_patterns.size()]);
+        this.max_trigger_interval = max_interval;
+    }
+
+    /**
+     * Get the profiles that must be triggered by an event with this label.
+     *
+     * @param event_label
+     * @return an unmodifiable list of profiles
+     */
+    List<DetectionAgentProfile> match(final String event_label) {
+
+        List<DetectionAgentProfile> matching = cache.get(event_label);
+        if (matching != null) {
+            return matching;
+        }
+
+        matching = new ArrayList<>();
+        for (int i = 0; i < profiles.length; i++) {
+            if (patterns[i].matcher(event_label).find()) {
+                matching.add(profiles[i]);
+            }
+        }
+        matching = Collections.unmodifiableList(matching);
+
+        if (cache.size() >= MAX_CACHED_LABELS) {
+            cache.clear();
+        }
+        cache.put(event_label, matching);
+        return matching;
+    }
+
+    /**
+     * Number of profiles in the index.
+     * @return
+     */
+    int size() {
+        return profiles.length;
+    }
+
+    /**
+     * Largest trigger interval of all profiles (in seconds).
+     * @return
+     */
+    int getMaxTriggerInterval() {
+        return max_trigger_interval;
+    }
+}
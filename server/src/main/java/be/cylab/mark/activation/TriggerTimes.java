@@ -0,0 +1,240 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.activation;
+
+import java.util.Map;
+
+/**
+ * Bounded table that keeps, for each (detector class, subject), the last time
+ * the detector was triggered for this subject.
+ *
+ * The table has a fixed capacity and works like a set-associative cache: a
+ * key can only be stored in a small window of slots, starting at the position
+ * given by its hash. Keys are compared by reference/equals, without building
+ * any intermediate string, and times are stored in a primitive array.
+ *
+ * Entries expire after a time to live, which is the largest trigger interval
+ * of all detectors: the slot of an expired entry can be reused, and expired
+ * entries are periodically removed to keep size meaningful. When all slots of
+ * a window are used by entries that did not expire yet, the oldest entry is
+ * evicted.
+ *
+ * This class is not thread-safe: it is only used by the activation thread.
+ * size and evictions can be read by other threads.
+ *
+ * @author tibo
+ */
+final class TriggerTimes {
+
+    /**
+     * Number of slots in which a key can be stored.
+     */
+    private static final int WINDOW = 8;
+
+    /**
+     * Remove expired entries at most once every minute.
+     */
+    private static final long SWEEP_INTERVAL = 60000;
+
+    private final int mask;
+    private final String[] class_names;
+    private final Map[] subjects;
+    private final long[] times;
+
+    private volatile long ttl = 0;
+    private volatile int size = 0;
+    private volatile long evictions = 0;
+    private long next_sweep = 0;
+
+    /**
+     * Create a table that can hold at most capacity entries. Capacity is
+     * rounded to the next power of 2.
+     *
+     * @param capacity
+     */
+    TriggerTimes(final int capacity) {
+        int slots = Integer.highestOneBit(Math.max(capacity, WINDOW) - 1) << 1;
+        this.mask = slots - 1;
+        this.class_names = new String[slots];
+        this.subjects = new Map[slots];
+        this.times = new long[slots];
+    }
+
+    /**
+     * Set the time to live of entries (in milliseconds). This should be the
+     * largest trigger interval of all detectors.
+     *
+     * @param ttl
+     */
+    void setTimeToLive(final long ttl) {
+        this.ttl = ttl;
+    }
+
+    /**
+     * Check if the detector class can be triggered for this subject (the
+     * trigger interval elapsed since the last time it was triggered).
+     *
+     * @param class_name
+     * @param subject
+     * @param now
+     * @param interval in milliseconds
+     * @return
+     */
+    boolean canTrigger(
+            final String class_name, final Map subject,
+            final long now, final long interval) {
+
+        int slot = find(class_name, subject);
+        if (slot < 0) {
+            return true;
+        }
+
+        return now - times[slot] > interval;
+    }
+
+    /**
+     * Record that the detector class was triggered for this subject.
+     *
+     * @param class_name
+     * @param subject
+     * @param now
+     */
+    void triggered(
+            final String class_name, final Map subject, final long now) {
+
+        if (now >= next_sweep) {
+            sweep(now);
+            next_sweep = now + SWEEP_INTERVAL;
+        }
+
+        int start = hash(class_name, subject);
+        int target = -1;
+
+        for (int i = 0; i < WINDOW; i++) {
+            int slot = (start + i) & mask;
+
+            if (class_names[slot] == null) {
+                if (target < 0 || class_names[target] != null) {
+                    target = slot;
+                }
+                continue;
+            }
+
+            if (matches(slot, class_name, subject)) {
+                times[slot] = now;
+                return;
+            }
+
+            // keep the oldest slot: it is either expired and can be reused,
+            // or it is the one we will evict
+            if (target < 0) {
+                target = slot;
+            } else if (class_names[target] != null
+                    && times[slot] < times[target]) {
+                target = slot;
+            }
+        }
+
+        if (class_names[target] == null) {
+            size++;
+        } else if (now - times[target] <= ttl) {
+            evictions++;
+        }
+
+        class_names[target] = class_name;
+        subjects[target] = subject;
+        times[target] = now;
+    }
+
+    /**
+     * Remove all expired entries.
+     * @param now
+     */
+    void sweep(final long now) {
+        int count = 0;
+        for (int slot = 0; slot <= mask; slot++) {
+            if (class_names[slot] == null) {
+                continue;
+            }
+
+            if (now - times[slot] > ttl) {
+                class_names[slot] = null;
+                subjects[slot] = null;
+            } else {
+                count++;
+            }
+        }
+        size = count;
+    }
+
+    /**
+     * Number of entries currently in the table (including entries that
+     * expired since the last sweep).
+     * @return
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Max number of entries.
+     * @return
+     */
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Number of entries that were removed before they expired, because
+     * the table was full.
+     * @return
+     */
+    long evictions() {
+        return evictions;
+    }
+
+    private int find(final String class_name, final Map subject) {
+        int start = hash(class_name, subject);
+        for (int i = 0; i < WINDOW; i++) {
+            int slot = (start + i) & mask;
+            if (class_names[slot] != null
+                    && matches(slot, class_name, subject)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matches(
+            final int slot, final String class_name, final Map subject) {
+        return class_names[slot].equals(class_name)
+                && subjects[slot].equals(subject);
+    }
+
+    private int hash(final String class_name, final Map subject) {
+        int h = class_name.hashCode() * 31 + subject.hashCode();
+        // spread the bits, as in HashMap
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.activation;
+
+import be.cylab.mark.server.Config;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes each job in its own virtual thread.
+ *
+ * Detection jobs spend most of their time waiting for the datastore, so they
+ * can run with a much higher concurrency than the number of CPU cores. The
+ * number of jobs that run at the same time is limited by
+ * Config.executor_concurrency : other jobs wait (in their virtual thread)
+ * until a permit is available.
+ *
+ * Virtual threads require Java 21 or later. On older JVMs, this executor
+ * falls back to a pool of executor_concurrency platform threads.
+ *
+ * @author tibo
+ */
+@Singleton
+public final class VirtualThreadsExecutor implements ExecutorInterface {
+
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(VirtualThreadsExecutor.class);
+
+    private final int concurrency;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong executed = new AtomicLong();
+
+    /**
+     *
+     * @param config
+     */
+    @Inject
+    public VirtualThreadsExecutor(final Config config) {
+        this.concurrency = config.getExecutorConcurrency();
+
+        ExecutorService virtual_executor = createVirtualExecutor();
+        if (virtual_executor == null) {
+            LOGGER.warn("Virtual threads are not available, using a pool of "
+                    + concurrency + " platform threads");
+            this.executor = Executors.newFixedThreadPool(concurrency);
+            this.permits = null;
+        } else {
+            this.executor = virtual_executor;
+            this.permits = new Semaphore(concurrency);
+        }
+    }
+
+    /**
+     * Create the virtual thread executor (using reflection, as we still
+     * compile for Java 8).
+     *
+     * @return null if virtual threads are not supported by this JVM
+     */
+    private static ExecutorService createVirtualExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException
+                | InvocationTargetException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public void submit(final Runnable job) {
+        waiting.incrementAndGet();
+        executor.submit(() -> run(job));
+    }
+
+    private void run(final Runnable job) {
+        if (permits != null) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException ex) {
+                waiting.decrementAndGet();
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        waiting.decrementAndGet();
+        running.incrementAndGet();
+        try {
+            job.run();
+        } finally {
+            running.decrementAndGet();
+            executed.incrementAndGet();
+            if (permits != null) {
+                permits.release();
+            }
+        }
+    }
+
+    @Override
+    public boolean shutdown() throws InterruptedException {
+        executor.shutdown();
+        return executor.awaitTermination(1, TimeUnit.DAYS);
+    }
+
+    @Override
+    public int getBacklog() {
+        return waiting.get();
+    }
+
+    @Override
+    public Map<String, Object> getStatus() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("executor.nodes", 1);
+        map.put("executor.parallelism", concurrency);
+        map.put("executor.jobs.running", running.get());
+        map.put("executor.jobs.executed", executed.get());
+        map.put("executor.jobs.waiting", waiting.get());
+        return map;
+    }
+}
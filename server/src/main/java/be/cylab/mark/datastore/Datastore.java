@@ -1,7 +1,8 @@
 package be.cylab.mark.datastore;
 
-import com.googlecode.jsonrpc4j.JsonRpcServer;
 import com.google.inject.Inject;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
 import com.mongodb.client.MongoDatabase;
 import java.util.concurrent.ArrayBlockingQueue;
 import be.cylab.mark.core.InvalidProfileException;
@@ -61,10 +62,6 @@ public class Datastore {
         LOGGER.info("Starting JSON-RPC datastore on " + config.getServerHost()
                 + " : " + config.getServerPort());
 
-        // create jsonrpc server
-        JsonRpcServer jsonrpc_server
-                = new JsonRpcServer(request_handler);
-
         QueuedThreadPool thread_pool = new QueuedThreadPool(
                 config.getMaxThreads(),
                 config.getMinThreads(),
@@ -78,7 +75,7 @@ public class Datastore {
         http_connector.setPort(config.getServerPort());
 
         jetty.setConnectors(new Connector[]{http_connector});
-        jetty.setHandler(new JettyHandler(jsonrpc_server));
+        jetty.setHandler(new JettyHandler(request_handler));
         jetty.start();
 
         while (!jetty.isStarted()) {
@@ -88,6 +85,58 @@ public class Datastore {
         LOGGER.info("Datastore started...");
     }
 
+    /**
+     * Prepare the MongoDB database: configure the write concern and read
+     * preference of collections, select the layout and retention of raw
+     * data (the server refuses to start if raw data is stored with the
+     * other layout), create the unique indexes and the indexes used by the
+     * datastore (if enabled in the configuration), build the collection of
+     * latest evidences in the background (if the database was created by a
+     * previous version) and start the write-behind buffer (if enabled).
+     */
+    public final void initDatabase() {
+        request_handler.setDataOptions(
+                WriteConcern.valueOf(config.getMongoDataWriteConcern()),
+                ReadPreference.valueOf(config.getMongoDataReadPreference()));
+        request_handler.setEvidenceOptions(
+                WriteConcern.valueOf(config.getMongoEvidenceWriteConcern()),
+                ReadPreference.valueOf(
+                        config.getMongoEvidenceReadPreference()));
+
+        if (config.getRawDataLayout().equals(
+                Config.RAW_DATA_LAYOUT_BUCKETS)) {
+            request_handler.enableBuckets(
+                    config.getRawDataBucketSpan(),
+                    config.getRawDataBucketRecords());
+        } else {
+            request_handler.checkDocumentsLayout();
+        }
+        request_handler.setRetention(config.getRawDataRetention() * 1000L);
+
+        request_handler.createUniqueIndexes();
+        if (config.isMongoIndexes()) {
+            request_handler.createIndexes(config.isMongoIndexBackground());
+        }
+
+        request_handler.initLatestEvidences();
+
+        if (config.isWriteBehind()) {
+            request_handler.enableWriteBehind(
+                    config.getWriteBehindCapacity(),
+                    config.getWriteBehindBatchSize(),
+                    config.getWriteBehindFlushInterval());
+        }
+    }
+
+    /**
+     * Write the data that is still buffered (write-behind).
+     *
+     * @throws InterruptedException if interrupted while writing
+     */
+    public final void closeDatabase() throws InterruptedException {
+        request_handler.close();
+    }
+
     /**
      * Stop the datastore.
      *
@@ -1,7 +1,10 @@
 package be.cylab.mark.datastore;
 
+import be.cylab.mark.client.WireFormat;
 import com.googlecode.jsonrpc4j.JsonRpcServer;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -14,10 +17,26 @@ import org.eclipse.jetty.server.handler.AbstractHandler;
  */
 class JettyHandler extends AbstractHandler {
 
-    private final JsonRpcServer jsonrpc_server;
+    private static final String[] FORMATS = new String[]{
+        WireFormat.JSON, WireFormat.SMILE, WireFormat.CBOR};
 
-    JettyHandler(final JsonRpcServer jsonrpc_server) {
-        this.jsonrpc_server = jsonrpc_server;
+    // wire format => jsonrpc server
+    private final Map<String, JsonRpcServer> jsonrpc_servers =
+            new HashMap<>();
+
+    /**
+     * Create a JSON-RPC server for each supported wire format. Requests are
+     * dispatched according to their Content-Type.
+     *
+     * @param request_handler
+     */
+    JettyHandler(final Object request_handler) {
+        for (String format : FORMATS) {
+            JsonRpcServer jsonrpc_server = new JsonRpcServer(
+                    WireFormat.createObjectMapper(format), request_handler);
+            jsonrpc_server.setContentType(WireFormat.getContentType(format));
+            jsonrpc_servers.put(format, jsonrpc_server);
+        }
     }
 
     /**
@@ -38,7 +57,9 @@ class JettyHandler extends AbstractHandler {
 
         response.addHeader("Access-Control-Allow-Origin", "*");
 
-        jsonrpc_server.handle(request, response);
+        // the response uses the same format as the request
+        String format = WireFormat.fromContentType(request.getContentType());
+        jsonrpc_servers.get(format).handle(request, response);
     }
 
 }
@@ -0,0 +1,252 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.datastore;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The indexes used by the queries of the RequestHandler, and a report of how
+ * often each index is actually used.
+ *
+ * Queries filter on LABEL, subject and a TIME range. As the fields of the
+ * subject depend on the subject adapter, the subject is indexed using
+ * SUBJECT_KEY (a hash of the subject) for evidences, and SUBJECT_KEYS (a
+ * hash of each combination of the fields of the subject) for raw data,
+ * which can be queried with a part of the subject.
+ *
+ * @author tibo
+ */
+public final class MongoIndexes {
+
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(MongoIndexes.class);
+
+    /**
+     * An index on a collection.
+     */
+    private static final class Index {
+        private final String collection;
+        private final Document keys;
+
+        // TTL index: documents are deleted when the date in the (single)
+        // field is reached. Sparse, as documents without the field never
+        // expire.
+        private final boolean ttl;
+
+        // unique index: always created, in the foreground, as queries rely
+        // on it
+        private final boolean unique;
+
+        Index(final String collection, final Document keys) {
+            this(collection, keys, false, false);
+        }
+
+        Index(final String collection, final Document keys,
+                final boolean ttl, final boolean unique) {
+            this.collection = collection;
+            this.keys = keys;
+            this.ttl = ttl;
+            this.unique = unique;
+        }
+    }
+
+    private final MongoDatabase mongodb;
+    private final List<Index> indexes = new ArrayList<>();
+
+    /**
+     *
+     * @param mongodb
+     * @param data_collection
+     * @param buckets_collection
+     * @param evidence_collection
+     * @param latest_collection
+     */
+    public MongoIndexes(
+            final MongoDatabase mongodb,
+            final String data_collection,
+            final String buckets_collection,
+            final String evidence_collection,
+            final String latest_collection) {
+
+        this.mongodb = mongodb;
+
+        // findRawData, countRawData and the pages of RawDataCursor (sorted by
+        // TIME and _id)
+        indexes.add(new Index(data_collection, new Document()
+                .append(MongoParser.LABEL, 1)
+                .append(MongoParser.SUBJECT_KEYS, 1)
+                .append(MongoParser.TIME, 1)
+                .append("_id", 1)));
+        indexes.add(new Index(data_collection,
+                new Document(MongoParser.TIME, 1)));
+
+        // bucket layout: buckets overlapping the time window of findRawData,
+        // and the bucket where a record is added
+        indexes.add(new Index(buckets_collection, new Document()
+                .append(MongoParser.LABEL, 1)
+                .append(MongoParser.SUBJECT_KEYS, 1)
+                .append(MongoParser.MAX_TIME, 1)));
+        indexes.add(new Index(buckets_collection, new Document()
+                .append(MongoParser.LABEL, 1)
+                .append(MongoParser.SUBJECT_KEY, 1)
+                .append(MongoParser.BUCKET, 1)));
+
+        // retention of raw data
+        indexes.add(new Index(data_collection,
+                new Document(MongoParser.EXPIRE_AT, 1), true, false));
+        indexes.add(new Index(buckets_collection,
+                new Document(MongoParser.EXPIRE_AT, 1), true, false));
+
+        // findEvidence(label, subject), findEvidenceSince,
+        // aggregateEvidence and findLastEvidences (the label prefix is a
+        // range on LABEL)
+        indexes.add(new Index(evidence_collection, new Document()
+                .append(MongoParser.LABEL, 1)
+                .append(MongoParser.SUBJECT_KEY, 1)
+                .append(MongoParser.TIME, 1)));
+        indexes.add(new Index(evidence_collection,
+                new Document(MongoParser.TIME, 1)));
+
+        // a single document for each (label, subject)
+        indexes.add(new Index(latest_collection, new Document()
+                .append(MongoParser.LABEL, 1)
+                .append(MongoParser.SUBJECT_KEY, 1), false, true));
+
+        // findEvidence(label) and its pages, sorted by decreasing score
+        indexes.add(new Index(latest_collection, new Document()
+                .append(MongoParser.LABEL, 1)
+                .append(MongoParser.SCORE, -1)
+                .append("_id", -1)));
+    }
+
+    /**
+     * Create the unique indexes (in the foreground).
+     */
+    public void createUnique() {
+        for (Index index : indexes) {
+            if (index.unique) {
+                createIndex(index, new IndexOptions().unique(true));
+            }
+        }
+    }
+
+    /**
+     * Create the indexes that do not exist yet (except unique indexes,
+     * created by createUnique).
+     *
+     * In background mode, indexes are built by MongoDB without locking the
+     * collections, and this method returns immediately.
+     *
+     * @param background
+     */
+    public void create(final boolean background) {
+        if (!background) {
+            createAll(false);
+            return;
+        }
+
+        Thread thread = new Thread(() -> createAll(true), "mongo-indexes");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void createAll(final boolean background) {
+        for (Index index : indexes) {
+            if (index.unique) {
+                continue;
+            }
+
+            IndexOptions options = new IndexOptions().background(background);
+            if (index.ttl) {
+                options.expireAfter(0L, TimeUnit.SECONDS).sparse(true);
+            }
+            createIndex(index, options);
+        }
+        LOGGER.info("Indexes created");
+    }
+
+    private void createIndex(final Index index, final IndexOptions options) {
+        LOGGER.info("Create index " + index.keys.toJson() + " on "
+                + index.collection);
+        try {
+            mongodb.getCollection(index.collection).createIndex(
+                    index.keys, options);
+        } catch (MongoCommandException ex) {
+            LOGGER.error("Failed to create index "
+                    + index.keys.toJson() + " : " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Number of queries that used each index (since the index was created or
+     * MongoDB was restarted), like db.index.DATA.LABEL_1.ops : 123.
+     *
+     * Indexes that are never used only slow down inserts.
+     *
+     * @return
+     */
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+
+        for (String collection : collections()) {
+            try {
+                for (Document stats : mongodb.getCollection(collection)
+                        .aggregate(Arrays.asList(
+                                new Document("$indexStats", new Document())))) {
+
+                    Document accesses = stats.get("accesses", Document.class);
+                    status.put(
+                            "db.index." + collection + "."
+                                    + stats.getString("name") + ".ops",
+                            accesses.get("ops", Number.class).longValue());
+                }
+            } catch (MongoCommandException ex) {
+                LOGGER.warn(ex.getMessage());
+            }
+        }
+
+        return status;
+    }
+
+    private List<String> collections() {
+        List<String> collections = new ArrayList<>();
+        for (Index index : indexes) {
+            if (!collections.contains(index.collection)) {
+                collections.add(index.collection);
+            }
+        }
+        return collections;
+    }
+}
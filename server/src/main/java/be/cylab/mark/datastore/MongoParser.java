@@ -26,9 +26,18 @@ package be.cylab.mark.datastore;
 import be.cylab.mark.core.DetectionAgentProfile;
 import be.cylab.mark.core.Evidence;
 import be.cylab.mark.core.RawData;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import org.bson.Document;
+import org.bson.types.ObjectId;
 
 /**
  * Parses RawData and Evidence to Mongo documents.
@@ -72,7 +81,68 @@ public final class MongoParser {
      */
     public static final String SUBJECT = "subject";
 
+    /**
+     * SUBJECT_KEY field : hash of the subject, used to index the subject
+     * whatever the fields of the subject are.
+     */
+    public static final String SUBJECT_KEY = "SUBJECT_KEY";
+
+    /**
+     * SUBJECT_KEYS field (raw data) : the key of each combination of the
+     * fields of the subject, so queries on a part of the subject also use
+     * the index. Not stored if the subject has more than
+     * MAX_SUBJECT_KEYS_FIELDS fields.
+     */
+    public static final String SUBJECT_KEYS = "SUBJECT_KEYS";
+
+    /**
+     * Max number of fields of a subject for SUBJECT_KEYS (2^n - 1 keys are
+     * stored for a subject with n fields).
+     */
+    public static final int MAX_SUBJECT_KEYS_FIELDS = 4;
+
+    /**
+     * EVIDENCE_ID field : id of the original evidence, for copies of
+     * evidences stored in another collection.
+     */
+    public static final String EVIDENCE_ID = "EVIDENCE_ID";
+
+    /**
+     * EXPIRE_AT field : date after which raw data is deleted by MongoDB (if a
+     * retention is configured).
+     */
+    public static final String EXPIRE_AT = "EXPIRE_AT";
+
+    /**
+     * BUCKET field : start time of a bucket of raw data.
+     */
+    public static final String BUCKET = "BUCKET";
+
+    /**
+     * RECORDS field : the raw data records of a bucket (_id, TIME and DATA).
+     */
+    public static final String RECORDS = "RECORDS";
+
+    /**
+     * COUNT field : number of records in a bucket.
+     */
+    public static final String COUNT = "COUNT";
+
+    /**
+     * MIN_TIME field : time of the oldest record in a bucket.
+     */
+    public static final String MIN_TIME = "MIN_TIME";
+
+    /**
+     * MAX_TIME field : time of the most recent record in a bucket.
+     */
+    public static final String MAX_TIME = "MAX_TIME";
 
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // MessageDigest is not thread safe, and getInstance is expensive
+    private static final ThreadLocal<MessageDigest> MD5 =
+            ThreadLocal.withInitial(MongoParser::createDigest);
 
     /**
      *
@@ -81,7 +151,8 @@ public final class MongoParser {
     }
 
     /**
-     * Convert from MongoDB document to RawData.
+     * Convert from MongoDB document to RawData. Fields that are not in the
+     * document (because of a projection) are left empty.
      *
      * @param doc
      * @return
@@ -89,20 +160,162 @@ public final class MongoParser {
     public RawData convert(final Document doc) {
 
         RawData data = new RawData();
+        data.setId(doc.getObjectId("_id").toString());
         data.setData(doc.getString(DATA));
-        data.setTime(doc.getLong(TIME));
         data.setLabel(doc.getString(LABEL));
 
-        HashMap<String, String> map = new HashMap<>();
-        for (Map.Entry entry : doc.get(SUBJECT, Document.class).entrySet()) {
-            map.put((String) entry.getKey(), (String) entry.getValue());
+        Long time = doc.getLong(TIME);
+        if (time != null) {
+            data.setTime(time);
+        }
+
+        Document subject = doc.get(SUBJECT, Document.class);
+        if (subject != null) {
+            HashMap<String, String> map = new HashMap<>();
+            for (Map.Entry entry : subject.entrySet()) {
+                map.put((String) entry.getKey(), (String) entry.getValue());
+            }
+            data.setSubject(map);
         }
-        data.setSubject(map);
 
         return data;
     }
 
     /**
+     * Compute the hash of a subject (independent of the order of the
+     * fields).
+     *
+     * @param subject
+     * @return
+     */
+    public String subjectKey(final Map<String, String> subject) {
+        TreeMap<String, String> sorted = new TreeMap<>();
+        if (subject != null) {
+            sorted.putAll(subject);
+        }
+
+        StringBuilder canonical = new StringBuilder();
+        for (Map.Entry<String, String> entry : sorted.entrySet()) {
+            canonical.append(entry.getKey()).append('\0');
+            canonical.append(entry.getValue()).append('\0');
+        }
+
+        byte[] hash = MD5.get().digest(
+                canonical.toString().getBytes(StandardCharsets.UTF_8));
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[2 * i] = HEX[(hash[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Create the MD5 digest used by subjectKey (one per thread).
+     *
+     * @return
+     */
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Compute the key of each combination of the fields of the subject
+     * (SUBJECT_KEYS). Empty if the subject has no field, or more than
+     * MAX_SUBJECT_KEYS_FIELDS fields.
+     *
+     * @param subject
+     * @return
+     */
+    public List<String> subjectKeys(final Map<String, String> subject) {
+        List<String> keys = new ArrayList<>();
+        if (subject == null || subject.isEmpty()
+                || subject.size() > MAX_SUBJECT_KEYS_FIELDS) {
+            return keys;
+        }
+
+        List<Map.Entry<String, String>> fields =
+                new ArrayList<>(subject.entrySet());
+        int combinations = 1 << fields.size();
+        for (int mask = 1; mask < combinations; mask++) {
+            Map<String, String> part = new HashMap<>();
+            for (int i = 0; i < fields.size(); i++) {
+                if ((mask & (1 << i)) != 0) {
+                    part.put(fields.get(i).getKey(), fields.get(i).getValue());
+                }
+            }
+            keys.add(subjectKey(part));
+        }
+        return keys;
+    }
+
+    /**
+     * Condition on SUBJECT_KEYS, that selects raw data whose subject
+     * contains the fields of the given subject, to use with the conditions
+     * on each field. Raw data without SUBJECT_KEYS (subject with many
+     * fields, or inserted by a previous version) also match.
+     *
+     * @param subject
+     * @return the condition, or null if the subject has no field
+     */
+    public Document subjectKeysFilter(final Map<String, String> subject) {
+        if (subject == null || subject.isEmpty()) {
+            return null;
+        }
+        return new Document("$in", Arrays.asList(subjectKey(subject), null));
+    }
+
+    /**
+     * Condition on SUBJECT_KEY, to use with the other conditions on the
+     * subject (evidences, which are queried by exact subject). Documents
+     * inserted before SUBJECT_KEY was introduced don't have this field, and
+     * also match.
+     *
+     * @param subject
+     * @return
+     */
+    public Document subjectKeyFilter(final Map<String, String> subject) {
+        return new Document("$in", Arrays.asList(subjectKey(subject), null));
+    }
+
+    /**
+     * Build the projection that only returns the given fields of raw data
+     * ("label", "time", "subject" or "data").
+     *
+     * @param fields
+     * @return
+     */
+    public Document projection(final String[] fields) {
+        Document projection = new Document();
+        for (String field : fields) {
+            projection.append(rawDataField(field), 1);
+        }
+        return projection;
+    }
+
+    private static String rawDataField(final String field) {
+        switch (field) {
+            case "label":
+                return LABEL;
+            case "time":
+                return TIME;
+            case "subject":
+                return SUBJECT;
+            case "data":
+                return DATA;
+            default:
+                throw new IllegalArgumentException(
+                        "Invalid raw data field: " + field);
+        }
+    }
+
+    /**
+     * Convert from MongoDB document to Evidence. If the document is a copy
+     * (it has an EVIDENCE_ID field), the id of the original evidence is used.
      *
      * @param doc
      * @return
@@ -121,7 +334,11 @@ public final class MongoParser {
         evidence.setTime(doc.getLong(TIME));
         evidence.setLabel(doc.getString(LABEL));
         evidence.setReport(doc.getString(REPORT));
-        evidence.setId(doc.getObjectId("_id").toString());
+        ObjectId id = doc.getObjectId(EVIDENCE_ID);
+        if (id == null) {
+            id = doc.getObjectId("_id");
+        }
+        evidence.setId(id.toString());
         evidence.setReferences(doc.getList(REFERENCES, String.class));
         evidence.setRequests(doc.getList("requests", String.class));
 
@@ -178,9 +395,100 @@ public final class MongoParser {
                 .append(TIME, data.getTime())
                 .append(DATA, data.getData())
                 .append(SUBJECT, data.getSubject());
+
+        List<String> keys = subjectKeys(data.getSubject());
+        if (!keys.isEmpty()) {
+            doc.append(SUBJECT_KEYS, keys);
+        }
         return doc;
     }
 
+    /**
+     * Set the date after which raw data is deleted by MongoDB (TTL index on
+     * EXPIRE_AT).
+     *
+     * @param doc raw data document
+     * @param retention in ms
+     * @return
+     */
+    public Document expire(final Document doc, final long retention) {
+        return doc.append(
+                EXPIRE_AT, new Date(doc.getLong(TIME) + retention));
+    }
+
+    /**
+     * Filter that selects the bucket where a raw data document must be
+     * added: the bucket of the same label and subject, that starts at
+     * TIME - TIME % span and contains less than max_records records. If no
+     * such bucket exists, a new bucket is created (upsert).
+     *
+     * @param doc raw data document (see convert(RawData))
+     * @param span time span of a bucket (in ms)
+     * @param max_records max number of records in a bucket
+     * @return
+     */
+    public Document bucketFilter(
+            final Document doc, final long span, final int max_records) {
+
+        long time = doc.getLong(TIME);
+        return new Document()
+                .append(LABEL, doc.getString(LABEL))
+                .append(SUBJECT_KEY, subjectKey(
+                        (Map<String, String>) doc.get(SUBJECT)))
+                .append(BUCKET, time - Math.floorMod(time, span))
+                .append(COUNT, new Document("$lt", max_records));
+    }
+
+    /**
+     * Update that adds a raw data document (which must already have an _id)
+     * to the bucket selected by bucketFilter.
+     *
+     * @param doc raw data document (see convert(RawData))
+     * @return
+     */
+    public Document bucketUpdate(final Document doc) {
+        long time = doc.getLong(TIME);
+
+        Document record = new Document()
+                .append("_id", doc.getObjectId("_id"))
+                .append(TIME, time)
+                .append(DATA, doc.getString(DATA));
+
+        Document max = new Document(MAX_TIME, time);
+        if (doc.containsKey(EXPIRE_AT)) {
+            max.append(EXPIRE_AT, doc.getDate(EXPIRE_AT));
+        }
+
+        return new Document()
+                .append("$push", new Document(RECORDS, record))
+                .append("$inc", new Document(COUNT, 1))
+                .append("$min", new Document(MIN_TIME, time))
+                .append("$max", max)
+                .append("$setOnInsert", new Document(
+                        SUBJECT, doc.get(SUBJECT))
+                        .append(SUBJECT_KEYS, doc.get(SUBJECT_KEYS)));
+    }
+
+    /**
+     * Aggregation stages that split buckets into raw data documents, with
+     * the same fields as the documents produced by convert(RawData). Hence
+     * the following stages (and convert(Document)) work the same for both
+     * layouts.
+     *
+     * @return
+     */
+    public List<Document> unwindBuckets() {
+        return Arrays.asList(
+                new Document("$unwind", "$" + RECORDS),
+                new Document("$project", new Document()
+                        .append("_id", "$" + RECORDS + "._id")
+                        .append(LABEL, 1)
+                        .append(SUBJECT, 1)
+                        .append(SUBJECT_KEYS, 1)
+                        .append(TIME, "$" + RECORDS + "." + TIME)
+                        .append(DATA, "$" + RECORDS + "." + DATA)));
+    }
+
     /**
      * Convert from Evidence to MongoDB document.
      *
@@ -197,6 +505,7 @@ public final class MongoParser {
                 .append(REPORT, evidence.getReport())
                 .append(REFERENCES, evidence.getReferences())
                 .append(SUBJECT, evidence.getSubject())
+                .append(SUBJECT_KEY, subjectKey(evidence.getSubject()))
                 .append("requests", evidence.getRequests());
 
         if (evidence.getProfile() != null) {
@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.datastore;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.bson.types.ObjectId;
+
+/**
+ * Position of the last evidence of a page (score and _id), encoded as an
+ * opaque string for the client.
+ *
+ * @author tibo
+ */
+final class PageToken {
+
+    private static final String SEPARATOR = ":";
+
+    private final double score;
+    private final ObjectId id;
+
+    PageToken(final double score, final ObjectId id) {
+        this.score = score;
+        this.id = id;
+    }
+
+    double getScore() {
+        return score;
+    }
+
+    ObjectId getId() {
+        return id;
+    }
+
+    /**
+     * Decode a token produced by toString().
+     *
+     * @param token
+     * @return
+     */
+    static PageToken parse(final String token) {
+        try {
+            String[] parts = new String(
+                    Base64.getUrlDecoder().decode(token),
+                    StandardCharsets.UTF_8).split(SEPARATOR);
+
+            long score_bits = Long.parseUnsignedLong(parts[0], 16);
+            return new PageToken(
+                    Double.longBitsToDouble(score_bits),
+                    new ObjectId(parts[1]));
+
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+            throw new IllegalArgumentException("Invalid page token: " + token);
+        }
+    }
+
+    @Override
+    public String toString() {
+        String value = Long.toHexString(Double.doubleToLongBits(score))
+                + SEPARATOR + id.toHexString();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(
+                value.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -2,7 +2,10 @@ package be.cylab.mark.datastore;
 
 import com.mongodb.client.FindIterable;
 import be.cylab.mark.core.ServerInterface;
+import be.cylab.mark.client.ConnectionPool;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.MongoIterable;
 import com.mongodb.client.gridfs.GridFSBucket;
 import com.mongodb.client.gridfs.GridFSBuckets;
 import com.mongodb.client.gridfs.GridFSDownloadStream;
@@ -11,24 +14,39 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
 import be.cylab.mark.activation.ActivationControllerInterface;
 import be.cylab.mark.core.DataAgentProfile;
 import be.cylab.mark.core.DetectionAgentProfile;
 import be.cylab.mark.core.Evidence;
+import be.cylab.mark.core.EvidenceAggregate;
+import be.cylab.mark.core.EvidencePage;
 import be.cylab.mark.core.RawData;
 import be.cylab.mark.server.DataSourcesController;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.mongodb.BasicDBObject;
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoCommandException;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
 import java.lang.management.ManagementFactory;
 import java.lang.management.OperatingSystemMXBean;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.slf4j.Logger;
@@ -45,6 +63,36 @@ public final class RequestHandler implements ServerInterface {
     private static final String COLLECTION_EVIDENCE = "EVIDENCE";
     private static final String COLLECTION_FILES = "FILES";
 
+    /**
+     * The most recent evidence for each (label, subject). Maintained by
+     * addEvidence.
+     */
+    private static final String COLLECTION_LATEST = "EVIDENCE_LATEST";
+
+    /**
+     * Raw data grouped by (label, subject, time bucket), used instead of
+     * COLLECTION_DATA if the bucket layout is enabled.
+     */
+    private static final String COLLECTION_BUCKETS = "DATA_BUCKETS";
+
+    /**
+     * State of the database, like the completion of migrations.
+     */
+    private static final String COLLECTION_META = "META";
+
+    /**
+     * _id of the document of COLLECTION_META that marks the collection of
+     * latest evidences as complete.
+     */
+    private static final String META_LATEST = "latest_evidences";
+
+    /**
+     * Duplicate key error.
+     */
+    private static final int DUPLICATE_KEY = 11000;
+
+    private static final int MIGRATION_BATCH_SIZE = 1000;
+
     private static final Logger LOGGER
             = LoggerFactory.getLogger(RequestHandler.class);
 
@@ -53,6 +101,28 @@ public final class RequestHandler implements ServerInterface {
     private final ActivationControllerInterface activation_controller;
     private final DataSourcesController sources;
     private final MongoParser parser;
+    private final MongoIndexes indexes;
+
+    // write concern and read preference of each collection (if not set,
+    // the default of the database is used)
+    private final Map<String, WriteConcern> write_concerns =
+            new ConcurrentHashMap<>();
+    private final Map<String, ReadPreference> read_preferences =
+            new ConcurrentHashMap<>();
+
+    // bucket layout: time span (ms) and max number of records of a bucket
+    // (0 if raw data is stored as one document per record)
+    private volatile long bucket_span;
+    private volatile int bucket_max_records;
+
+    // retention of raw data (ms), 0 to keep raw data forever
+    private volatile long retention;
+
+    // null if raw data is written synchronously
+    private volatile WriteBehindBuffer write_behind;
+
+    // false while the collection of latest evidences is built
+    private volatile boolean latest_ready;
 
     //Cache
     private final HashMap<String, Object> agents_cache;
@@ -78,15 +148,259 @@ public final class RequestHandler implements ServerInterface {
         this.sources = sources;
         this.parser = parser;
         this.gridfsbucket = GridFSBuckets.create(mongodb, COLLECTION_FILES);
+        this.indexes = new MongoIndexes(
+                mongodb, COLLECTION_DATA, COLLECTION_BUCKETS,
+                COLLECTION_EVIDENCE, COLLECTION_LATEST);
+    }
+
+    /**
+     * Set the write concern and read preference used for raw data. For
+     * example, raw data may be written with WriteConcern.UNACKNOWLEDGED to
+     * increase ingestion throughput.
+     *
+     * @param write_concern
+     * @param read_preference
+     */
+    public void setDataOptions(
+            final WriteConcern write_concern,
+            final ReadPreference read_preference) {
+        for (String name : new String[]{
+            COLLECTION_DATA, COLLECTION_BUCKETS}) {
+            write_concerns.put(name, write_concern);
+            read_preferences.put(name, read_preference);
+        }
+    }
+
+    /**
+     * Store raw data in buckets: a single document contains the records
+     * of a label and subject, for a time span. Window queries (findRawData)
+     * read a few buckets instead of a document for each record.
+     *
+     * Data stored with the other layout (one document per record) is not
+     * migrated, and would no longer be visible. Hence buckets can only be
+     * enabled if no raw data is stored with the other layout.
+     *
+     * @param span time span of a bucket (in ms)
+     * @param max_records max number of records in a bucket
+     * @throws IllegalStateException if raw data is stored with one document
+     * per record
+     */
+    public void enableBuckets(final long span, final int max_records) {
+        checkEmpty(COLLECTION_DATA, "documents");
+        this.bucket_max_records = max_records;
+        this.bucket_span = span;
+    }
+
+    /**
+     * Check that no raw data is stored in buckets, if buckets are not
+     * enabled (this data would not be visible).
+     *
+     * @throws IllegalStateException if raw data is stored in buckets
+     */
+    public void checkDocumentsLayout() {
+        if (bucket_span == 0) {
+            checkEmpty(COLLECTION_BUCKETS, "buckets");
+        }
+    }
+
+    /**
+     * Refuse to use a layout of raw data while the collection of the other
+     * layout contains data.
+     */
+    private void checkEmpty(final String name, final String layout) {
+        Document first = collection(name)
+                .find()
+                .projection(new Document("_id", 1))
+                .first();
+
+        if (first != null) {
+            throw new IllegalStateException("Collection " + name
+                    + " contains raw data stored with the " + layout
+                    + " layout, which would not be visible with the"
+                    + " configured raw_data_layout. Migrate or drop the"
+                    + " collection, or change raw_data_layout.");
+        }
+    }
+
+    /**
+     * Delete raw data when it is older than retention (based on the time
+     * of the record). The deletion is performed by MongoDB (TTL index), and
+     * only applies to data added after the retention is set.
+     *
+     * @param retention in ms, 0 to keep raw data forever
+     */
+    public void setRetention(final long retention) {
+        this.retention = retention;
+    }
+
+    /**
+     * Set the write concern and read preference used for evidences (and for
+     * the collection of latest evidences).
+     *
+     * @param write_concern
+     * @param read_preference
+     */
+    public void setEvidenceOptions(
+            final WriteConcern write_concern,
+            final ReadPreference read_preference) {
+        for (String name : new String[]{
+            COLLECTION_EVIDENCE, COLLECTION_LATEST}) {
+            write_concerns.put(name, write_concern);
+            read_preferences.put(name, read_preference);
+        }
+    }
+
+    /**
+     * Get a collection, with the write concern and read preference that are
+     * configured for this collection.
+     */
+    private MongoCollection<Document> collection(final String name) {
+        MongoCollection<Document> collection = mongodb.getCollection(name);
+
+        WriteConcern write_concern = write_concerns.get(name);
+        if (write_concern != null) {
+            collection = collection.withWriteConcern(write_concern);
+        }
+
+        ReadPreference read_preference = read_preferences.get(name);
+        if (read_preference != null) {
+            collection = collection.withReadPreference(read_preference);
+        }
+
+        return collection;
+    }
+
+    /**
+     * Acknowledge raw data as soon as it is added to an in-memory buffer,
+     * and write the buffer to MongoDB in batches (in a separate thread).
+     *
+     * Detectors are notified when data is written (not when it is
+     * buffered), so data is always available when detectors query it.
+     *
+     * @param capacity max number of records in the buffer (addRawData
+     * blocks when the buffer is full)
+     * @param batch_size max number of records written at once
+     * @param flush_interval max time (ms) a record remains in the buffer
+     */
+    public void enableWriteBehind(
+            final int capacity, final int batch_size,
+            final long flush_interval) {
+
+        WriteBehindBuffer buffer = new WriteBehindBuffer(
+                documents -> failedDocuments(
+                        documents, writeRawData(documents)),
+                activation_controller::notifyRawData,
+                capacity, batch_size, flush_interval);
+        buffer.start();
+        this.write_behind = buffer;
+    }
+
+    /**
+     * Write the raw data that is still buffered, and stop the write-behind
+     * thread (if enabled).
+     *
+     * @throws InterruptedException if interrupted while writing
+     */
+    public void close() throws InterruptedException {
+        WriteBehindBuffer buffer = this.write_behind;
+        if (buffer == null) {
+            return;
+        }
+
+        this.write_behind = null;
+        buffer.close();
+    }
+
+    /**
+     * Fill the collection of latest evidences from the existing evidences
+     * (database created by a previous version of MARK), in a separate
+     * thread.
+     *
+     * A marker is stored in COLLECTION_META when the collection is
+     * complete. Until then, the collection is built again at each startup
+     * (the upserts are idempotent), and findEvidence(label),
+     * findEvidencePage and findLastEvidences may miss some subjects.
+     */
+    public void initLatestEvidences() {
+        if (collection(COLLECTION_META).find(
+                new Document("_id", META_LATEST)).first() != null) {
+            latest_ready = true;
+            return;
+        }
+
+        if (collection(COLLECTION_EVIDENCE).find()
+                .projection(new Document("_id", 1)).first() == null) {
+            markLatestEvidences();
+            return;
+        }
+
+        Thread thread = new Thread(
+                this::buildLatestEvidences, "latest-evidences");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Copy the most recent evidence of each (label, subject) to the
+     * collection of latest evidences, then store the completion marker.
+     */
+    void buildLatestEvidences() {
+        LOGGER.info("Build the collection of latest evidences...");
+        try {
+            List<Evidence> batch = new ArrayList<>(MIGRATION_BATCH_SIZE);
+            for (Document doc : collection(COLLECTION_EVIDENCE).find()) {
+                batch.add(parser.convertEvidence(doc));
+                if (batch.size() == MIGRATION_BATCH_SIZE) {
+                    updateLatest(batch);
+                    batch.clear();
+                }
+            }
+            updateLatest(batch);
+        } catch (RuntimeException ex) {
+            LOGGER.error("Failed to build the collection of latest evidences"
+                    + " (will be retried at next startup) : "
+                    + ex.getMessage());
+            return;
+        }
+
+        markLatestEvidences();
+        LOGGER.info("Latest evidences ready");
+    }
 
-        // Create indexes for LABEL and TIME
-        Document index = new Document(MongoParser.LABEL, 1);
-        mongodb.getCollection(COLLECTION_DATA).createIndex(index);
-        mongodb.getCollection(COLLECTION_EVIDENCE).createIndex(index);
+    private void markLatestEvidences() {
+        Document marker = new Document("_id", META_LATEST)
+                .append("complete", true);
+        collection(COLLECTION_META).replaceOne(
+                new Document("_id", META_LATEST), marker,
+                new ReplaceOptions().upsert(true));
+        latest_ready = true;
+    }
+
+    /**
+     * True when the collection of latest evidences is complete.
+     *
+     * @return
+     */
+    public boolean isLatestEvidencesReady() {
+        return latest_ready;
+    }
+
+    /**
+     * Create the unique indexes, that are required for the queries to be
+     * correct (whatever the mongo_indexes option).
+     */
+    public void createUniqueIndexes() {
+        indexes.createUnique();
+    }
 
-        index = new Document(MongoParser.TIME, 1);
-        mongodb.getCollection(COLLECTION_DATA).createIndex(index);
-        mongodb.getCollection(COLLECTION_EVIDENCE).createIndex(index);
+    /**
+     * Create the indexes used by the queries (called by the Datastore when
+     * it starts).
+     *
+     * @param background build indexes in the background
+     */
+    public void createIndexes(final boolean background) {
+        indexes.create(background);
     }
 
     /**
@@ -114,13 +428,33 @@ public final class RequestHandler implements ServerInterface {
      * {@inheritDoc}
      *
      * @param data {@inheritDoc}
+     * @throws InterruptedException if interrupted while the write-behind
+     * buffer is full
      */
     @Override
-    public void addRawData(final RawData data) {
-
-        Document document = parser.convert(data);
-        mongodb.getCollection(COLLECTION_DATA)
-                .insertOne(document);
+    public void addRawData(final RawData data) throws InterruptedException {
+
+        Document document = rawDataDocument(data);
+
+        WriteBehindBuffer buffer = this.write_behind;
+        if (buffer == null && bucket_span == 0) {
+            collection(COLLECTION_DATA)
+                    .insertOne(document);
+        } else if (buffer == null) {
+            MongoBulkWriteException error = writeRawData(
+                    Collections.singletonList(document));
+            if (error != null) {
+                throw error;
+            }
+        } else {
+            // the id is assigned here, as the document is written later,
+            // and detectors are notified by the buffer
+            ObjectId id = new ObjectId();
+            document.append("_id", id);
+            data.setId(id.toString());
+            buffer.add(document, data);
+            return;
+        }
 
         ObjectId id = (ObjectId) document.get("_id");
         data.setId(id.toString());
@@ -141,26 +475,250 @@ public final class RequestHandler implements ServerInterface {
             final long from,
             final long till) {
 
+        return this.parseData(
+                rawDataDocuments(label, subject, from, till, null, 0, null));
+
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Pages are read using the index on TIME (keyset pagination), hence
+     * fetching a page does not require to skip the previous ones.
+     *
+     * @param label
+     * @param subject
+     * @param from
+     * @param till
+     * @param after
+     * @param limit
+     * @param fields
+     * @return
+     */
+    @Override
+    public RawData[] findRawData(
+            final String label, final Map<String, String> subject,
+            final long from, final long till, final String after,
+            final int limit, final String[] fields) {
+
+        if (limit < 1) {
+            throw new IllegalArgumentException("limit must be >= 1");
+        }
+
+        Document projection = null;
+        if (fields != null) {
+            // the time is required to get the next page
+            projection = parser.projection(fields)
+                    .append(MongoParser.TIME, 1);
+        }
+
+        return this.parseData(rawDataDocuments(
+                label, subject, from, till, after, limit, projection));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param label
+     * @param subject
+     * @param from
+     * @param till
+     * @param fields
+     * @return
+     */
+    @Override
+    public RawData[] findRawData(
+            final String label, final Map<String, String> subject,
+            final long from, final long till, final String[] fields) {
+
+        return this.parseData(rawDataDocuments(
+                label, subject, from, till, null, 0,
+                parser.projection(fields)));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param label
+     * @param subject
+     * @param from
+     * @param till
+     * @return
+     */
+    @Override
+    public long countRawData(
+            final String label, final Map<String, String> subject,
+            final long from, final long till) {
+
+        Document query = rawDataQuery(label, subject, from, till);
+        if (bucket_span == 0) {
+            return collection(COLLECTION_DATA).countDocuments(query);
+        }
+
+        List<Document> pipeline = bucketPipeline(
+                label, subject, from, till, query);
+        pipeline.add(new Document("$group", new Document("_id", null)
+                .append("count", new Document("$sum", 1))));
+
+        Document result = collection(COLLECTION_BUCKETS)
+                .aggregate(pipeline).first();
+        if (result == null) {
+            return 0;
+        }
+        return result.get("count", Number.class).longValue();
+    }
+
+    /**
+     * Find raw data documents, from COLLECTION_DATA or from the buckets
+     * (depending on the layout).
+     *
+     * @param after id of the last document of the previous page, or null
+     * @param limit max number of documents, sorted by TIME and _id, or 0 to
+     * get all documents (not sorted)
+     * @param projection or null to get all fields
+     */
+    private MongoIterable<Document> rawDataDocuments(
+            final String label, final Map<String, String> subject,
+            final long from, final long till, final String after,
+            final int limit, final Document projection) {
+
+        Document query = rawDataQuery(label, subject, from, till);
+        if (after != null) {
+            query.append("$or", Arrays.asList(
+                    new Document(MongoParser.TIME, new Document("$gt", from)),
+                    new Document("_id",
+                            new Document("$gt", new ObjectId(after)))));
+        }
+        Document sort = new Document(MongoParser.TIME, 1).append("_id", 1);
+
+        if (bucket_span == 0) {
+            FindIterable<Document> documents = collection(COLLECTION_DATA)
+                    .find(query);
+            if (limit > 0) {
+                documents.sort(sort).limit(limit);
+            }
+            if (projection != null) {
+                documents.projection(projection);
+            }
+            return documents;
+        }
+
+        List<Document> pipeline = bucketPipeline(
+                label, subject, from, till, query);
+        if (limit > 0) {
+            pipeline.add(new Document("$sort", sort));
+            pipeline.add(new Document("$limit", limit));
+        }
+        if (projection != null) {
+            pipeline.add(new Document("$project", projection));
+        }
+        return collection(COLLECTION_BUCKETS).aggregate(pipeline);
+    }
+
+    /**
+     * Aggregation stages that select the buckets overlapping [from, till],
+     * split them into raw data documents, and keep the documents matching
+     * query.
+     */
+    private List<Document> bucketPipeline(
+            final String label, final Map<String, String> subject,
+            final long from, final long till, final Document query) {
+
+        Document buckets = subjectQuery(label, subject)
+                .append(MongoParser.MIN_TIME, new Document("$lte", till))
+                .append(MongoParser.MAX_TIME, new Document("$gte", from));
+
+        List<Document> pipeline = new ArrayList<>();
+        pipeline.add(new Document("$match", buckets));
+        pipeline.addAll(parser.unwindBuckets());
+        pipeline.add(new Document("$match", query));
+        return pipeline;
+    }
+
+    private Document rawDataQuery(
+            final String label, final Map<String, String> subject,
+            final long from, final long till) {
+
+        return subjectQuery(label, subject).append(
+                MongoParser.TIME,
+                new Document("$gte", from).append("$lte", till));
+    }
+
+    /**
+     * Raw data of this label, whose subject contains the fields of subject
+     * (the records may have additional subject fields).
+     */
+    private Document subjectQuery(
+            final String label, final Map<String, String> subject) {
+
         Document query = new Document();
         query.append(MongoParser.LABEL, label);
+        Document keys = parser.subjectKeysFilter(subject);
+        if (keys != null) {
+            query.append(MongoParser.SUBJECT_KEYS, keys);
+        }
         for (Entry entry : subject.entrySet()) {
             query.append(
                     MongoParser.SUBJECT + "." + entry.getKey(),
                     entry.getValue());
         }
-        query.append(
-                MongoParser.TIME,
-                new Document("$gte", from).append("$lte", till));
+        return query;
+    }
 
-        FindIterable<Document> documents = mongodb
-                .getCollection(COLLECTION_DATA)
-                .find(query);
+    /**
+     * Convert raw data to a document, with an expiration date if a
+     * retention is configured.
+     */
+    private Document rawDataDocument(final RawData data) {
+        Document document = parser.convert(data);
+        if (retention > 0) {
+            parser.expire(document, retention);
+        }
+        return document;
+    }
+
+    /**
+     * Write raw data documents, in COLLECTION_DATA or in the buckets
+     * (depending on the layout). The documents receive an _id.
+     *
+     * @return the error if some documents could not be written, or null
+     */
+    private MongoBulkWriteException writeRawData(
+            final List<Document> documents) {
+
+        if (bucket_span == 0) {
+            return insertMany(COLLECTION_DATA, documents);
+        }
+
+        if (documents.isEmpty()) {
+            return null;
+        }
 
-        return this.parseData(documents);
+        UpdateOptions upsert = new UpdateOptions().upsert(true);
+        List<UpdateOneModel<Document>> updates =
+                new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            if (!document.containsKey("_id")) {
+                document.append("_id", new ObjectId());
+            }
+            updates.add(new UpdateOneModel<>(
+                    parser.bucketFilter(
+                            document, bucket_span, bucket_max_records),
+                    parser.bucketUpdate(document),
+                    upsert));
+        }
+
+        try {
+            collection(COLLECTION_BUCKETS).bulkWrite(
+                    updates, new BulkWriteOptions().ordered(false));
+        } catch (MongoBulkWriteException ex) {
+            return ex;
+        }
 
+        return null;
     }
 
-    private RawData[] parseData(final FindIterable<Document> documents) {
+    private RawData[] parseData(final MongoIterable<Document> documents) {
         ArrayList<RawData> results = new ArrayList<>();
         for (Document doc : documents) {
             results.add(parser.convert(doc));
@@ -176,14 +734,234 @@ public final class RequestHandler implements ServerInterface {
     public void addEvidence(final Evidence evidence) {
 
         Document document = parser.convert(evidence);
-        mongodb.getCollection(COLLECTION_EVIDENCE)
+        collection(COLLECTION_EVIDENCE)
                 .insertOne(document);
         ObjectId id = (ObjectId) document.get("_id");
         evidence.setId(id.toString());
+        updateLatest(Collections.singletonList(evidence));
 
         activation_controller.notifyEvidence(evidence);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Records are inserted with a single unordered insertMany. If some
+     * records cannot be inserted, the other records are still inserted (and
+     * trigger detectors) before the error is returned.
+     *
+     * With write-behind, all records are buffered (errors are only logged),
+     * and detectors are triggered when the records are written.
+     *
+     * @param data
+     * @throws InterruptedException if interrupted while the write-behind
+     * buffer is full
+     */
+    @Override
+    public void addRawData(final RawData[] data) throws InterruptedException {
+
+        List<Document> documents = new ArrayList<>(data.length);
+        for (RawData record : data) {
+            documents.add(rawDataDocument(record));
+        }
+
+        WriteBehindBuffer buffer = this.write_behind;
+        if (buffer != null) {
+            for (int i = 0; i < data.length; i++) {
+                ObjectId id = new ObjectId();
+                documents.get(i).append("_id", id);
+                data[i].setId(id.toString());
+                buffer.add(documents.get(i), data[i]);
+            }
+            return;
+        }
+
+        MongoBulkWriteException error = writeRawData(documents);
+        Set<Integer> failed = failedIndexes(error);
+
+        List<RawData> inserted = new ArrayList<>(data.length);
+        for (int i = 0; i < data.length; i++) {
+            if (failed.contains(i)) {
+                continue;
+            }
+
+            ObjectId id = (ObjectId) documents.get(i).get("_id");
+            data[i].setId(id.toString());
+            inserted.add(data[i]);
+        }
+
+        activation_controller.notifyRawData(
+                inserted.toArray(new RawData[inserted.size()]));
+
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param evidences
+     */
+    @Override
+    public void addEvidence(final Evidence[] evidences) {
+
+        List<Document> documents = new ArrayList<>(evidences.length);
+        for (Evidence evidence : evidences) {
+            documents.add(parser.convert(evidence));
+        }
+
+        MongoBulkWriteException error = insertMany(
+                COLLECTION_EVIDENCE, documents);
+        Set<Integer> failed = failedIndexes(error);
+
+        List<Evidence> inserted = new ArrayList<>(evidences.length);
+        for (int i = 0; i < evidences.length; i++) {
+            if (failed.contains(i)) {
+                continue;
+            }
+
+            ObjectId id = (ObjectId) documents.get(i).get("_id");
+            evidences[i].setId(id.toString());
+            inserted.add(evidences[i]);
+        }
+
+        updateLatest(inserted);
+        activation_controller.notifyEvidence(
+                inserted.toArray(new Evidence[inserted.size()]));
+
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Insert these documents with a single unordered operation.
+     *
+     * @param collection
+     * @param documents
+     * @return the error if some documents could not be inserted, or null
+     */
+    private MongoBulkWriteException insertMany(
+            final String collection, final List<Document> documents) {
+
+        if (documents.isEmpty()) {
+            return null;
+        }
+
+        try {
+            collection(collection).insertMany(
+                    documents, new InsertManyOptions().ordered(false));
+        } catch (MongoBulkWriteException ex) {
+            return ex;
+        }
+
+        return null;
+    }
+
+    /**
+     * Replace the latest evidence for (label, subject) by these evidences,
+     * if they are more recent. If a more recent evidence is already stored,
+     * the upsert fails with a duplicate key error, which is ignored.
+     *
+     * The same error occurs if two evidences for a new (label, subject) are
+     * inserted at the same time. Hence failed updates are tried a second
+     * time, as the document now exists.
+     *
+     * @param evidences
+     */
+    private void updateLatest(final List<Evidence> evidences) {
+        if (evidences.isEmpty()) {
+            return;
+        }
+
+        List<ReplaceOneModel<Document>> updates =
+                new ArrayList<>(evidences.size());
+        for (Evidence evidence : evidences) {
+            Document latest = parser.convert(evidence);
+            latest.append(MongoParser.EVIDENCE_ID,
+                    new ObjectId(evidence.getId()));
+
+            Document filter = new Document()
+                    .append(MongoParser.LABEL, evidence.getLabel())
+                    .append(MongoParser.SUBJECT_KEY,
+                            latest.get(MongoParser.SUBJECT_KEY))
+                    .append(MongoParser.TIME,
+                            new Document("$lte", evidence.getTime()));
+
+            updates.add(new ReplaceOneModel<>(
+                    filter, latest, new ReplaceOptions().upsert(true)));
+        }
+
+        List<ReplaceOneModel<Document>> failed = replaceLatest(updates);
+        replaceLatest(failed);
+    }
+
+    /**
+     * Run the updates, and return the updates that failed because of a
+     * duplicate key.
+     */
+    private List<ReplaceOneModel<Document>> replaceLatest(
+            final List<ReplaceOneModel<Document>> updates) {
+
+        List<ReplaceOneModel<Document>> failed = new ArrayList<>();
+        if (updates.isEmpty()) {
+            return failed;
+        }
+
+        try {
+            collection(COLLECTION_LATEST).bulkWrite(
+                    updates, new BulkWriteOptions().ordered(false));
+        } catch (MongoBulkWriteException ex) {
+            for (BulkWriteError error : ex.getWriteErrors()) {
+                if (error.getCode() != DUPLICATE_KEY) {
+                    throw ex;
+                }
+                failed.add(updates.get(error.getIndex()));
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Documents that could not be written by writeRawData because of a
+     * write error (invalid documents, which cannot be retried). Without
+     * buckets, a duplicate key means the document was already written (by a
+     * previous attempt). Other errors (connection) are thrown by
+     * writeRawData, and the batch is retried by the write-behind buffer.
+     */
+    private List<Document> failedDocuments(
+            final List<Document> documents,
+            final MongoBulkWriteException error) {
+
+        List<Document> failed = new ArrayList<>();
+        if (error == null) {
+            return failed;
+        }
+
+        for (BulkWriteError write_error : error.getWriteErrors()) {
+            if (bucket_span == 0 && write_error.getCode() == DUPLICATE_KEY) {
+                continue;
+            }
+            failed.add(documents.get(write_error.getIndex()));
+        }
+        return failed;
+    }
+
+    private static Set<Integer> failedIndexes(
+            final MongoBulkWriteException error) {
+
+        Set<Integer> failed = new HashSet<>();
+        if (error == null) {
+            return failed;
+        }
+
+        for (BulkWriteError write_error : error.getWriteErrors()) {
+            failed.add(write_error.getIndex());
+        }
+        return failed;
+    }
+
     @Override
     public ObjectId addFile(final byte[] bytes, final String filename)
             throws Throwable {
@@ -239,10 +1017,10 @@ public final class RequestHandler implements ServerInterface {
 
         Document query = new Document();
         query.append(MongoParser.LABEL, label);
+        query.append(MongoParser.SUBJECT_KEY, parser.subjectKeyFilter(subject));
         query.append(MongoParser.SUBJECT, subject);
 
-        FindIterable<Document> documents = mongodb
-                .getCollection(COLLECTION_EVIDENCE)
+        FindIterable<Document> documents = collection(COLLECTION_EVIDENCE)
                 .find(query);
 
         return this.parseEvidences(documents);
@@ -260,37 +1038,25 @@ public final class RequestHandler implements ServerInterface {
 
         LOGGER.debug("findEvidence : " + label);
 
+        // a single document per subject
         Document query = new Document();
         query.append(MongoParser.LABEL, label);
 
-        FindIterable<Document> documents = mongodb
-                .getCollection(COLLECTION_EVIDENCE)
-                .find(query);
-
-        HashMap<Map, Evidence> evidences = new HashMap<>();
-        for (Document doc : documents) {
-            Evidence evidence = parser.convertEvidence(doc);
-
-            Evidence inmap = evidences.get(evidence.getSubject());
-            if (inmap == null) {
-                evidences.put(evidence.getSubject(), evidence);
-                continue;
-            }
-
-            if (evidence.getTime() > inmap.getTime()) {
-                evidences.put(evidence.getSubject(), evidence);
-            }
-        }
-
-        Evidence[] ev_array =
-                evidences.values().toArray(new Evidence[evidences.size()]);
+        FindIterable<Document> documents = collection(COLLECTION_LATEST)
+                .find(query)
+                .sort(SCORE_ORDER);
 
-        Arrays.sort(ev_array, Collections.reverseOrder());
-        return ev_array;
+        return this.parseEvidences(documents);
     }
 
     private static final int RESULTS_PER_PAGE = 100;
 
+    /**
+     * Order of evidences for findEvidence(label) and the pages.
+     */
+    private static final Document SCORE_ORDER =
+            new Document(MongoParser.SCORE, -1).append("_id", -1);
+
     /**
      * Keep only one evidence per subject: the most recent one.
      *
@@ -306,18 +1072,61 @@ public final class RequestHandler implements ServerInterface {
             throw new IllegalArgumentException("page must be  >= 1");
         }
 
-        Evidence[] evidences = this.findEvidence(label);
+        FindIterable<Document> documents = collection(COLLECTION_LATEST)
+                .find(new Document(MongoParser.LABEL, label))
+                .sort(SCORE_ORDER)
+                .skip((page - 1) * RESULTS_PER_PAGE)
+                .limit(RESULTS_PER_PAGE);
+
+        return this.parseEvidences(documents);
+    }
 
-        int start_index = (page - 1) * RESULTS_PER_PAGE;
-        if (start_index > evidences.length) {
-            return new Evidence[]{};
+    /**
+     * {@inheritDoc}
+     *
+     * The token contains the score and _id of the last document of the
+     * previous page, so the next page is read directly from the index on
+     * (LABEL, SCORE, _id) (keyset pagination).
+     *
+     * @param label
+     * @param token
+     * @return
+     */
+    @Override
+    public EvidencePage findEvidencePage(
+            final String label, final String token) {
+
+        Document query = new Document(MongoParser.LABEL, label);
+        if (token != null) {
+            PageToken after = PageToken.parse(token);
+            query.append("$or", Arrays.asList(
+                    new Document(MongoParser.SCORE,
+                            new Document("$lt", after.getScore())),
+                    new Document(MongoParser.SCORE, after.getScore())
+                            .append("_id",
+                                    new Document("$lt", after.getId()))));
         }
 
-        int end_index = start_index + RESULTS_PER_PAGE;
-        if (end_index > evidences.length) {
-            end_index = evidences.length;
+        List<Document> documents = collection(COLLECTION_LATEST)
+                .find(query)
+                .sort(SCORE_ORDER)
+                .limit(RESULTS_PER_PAGE)
+                .into(new ArrayList<>());
+
+        EvidencePage page = new EvidencePage();
+        Evidence[] evidences = new Evidence[documents.size()];
+        for (int i = 0; i < evidences.length; i++) {
+            evidences[i] = parser.convertEvidence(documents.get(i));
+        }
+        page.setEvidences(evidences);
+
+        if (documents.size() == RESULTS_PER_PAGE) {
+            Document last = documents.get(documents.size() - 1);
+            page.setNext(new PageToken(
+                    last.getDouble(MongoParser.SCORE),
+                    last.getObjectId("_id")).toString());
         }
-        return Arrays.copyOfRange(evidences, start_index, end_index);
+        return page;
     }
 
     /**
@@ -331,8 +1140,7 @@ public final class RequestHandler implements ServerInterface {
         Document query = new Document();
         query.append("_id", new ObjectId(id));
 
-        FindIterable<Document> documents = mongodb
-                .getCollection(COLLECTION_EVIDENCE)
+        FindIterable<Document> documents = collection(COLLECTION_EVIDENCE)
                 .find(query);
 
         Document document = documents.first();
@@ -367,27 +1175,14 @@ public final class RequestHandler implements ServerInterface {
         // Find everything that starts with "label"
         Pattern regex = Pattern.compile("^" + label);
         query.append(MongoParser.LABEL, regex);
+        query.append(MongoParser.SUBJECT_KEY, parser.subjectKeyFilter(subject));
         query.append(MongoParser.SUBJECT, subject);
 
-        FindIterable<Document> documents = mongodb
-                .getCollection(COLLECTION_EVIDENCE)
+        // a single document per label
+        FindIterable<Document> documents = collection(COLLECTION_LATEST)
                 .find(query);
 
-        HashMap<String, Evidence> evidences = new HashMap<>();
-        for (Document doc : documents) {
-            Evidence evidence = parser.convertEvidence(doc);
-
-            Evidence inmap = evidences.get(evidence.getLabel());
-            if (inmap == null) {
-                evidences.put(evidence.getLabel(), evidence);
-                continue;
-            }
-
-            if (evidence.getTime() > inmap.getTime()) {
-                evidences.put(evidence.getLabel(), evidence);
-            }
-        }
-        return evidences.values().toArray(new Evidence[evidences.size()]);
+        return this.parseEvidences(documents);
     }
 
     /**
@@ -452,15 +1247,75 @@ public final class RequestHandler implements ServerInterface {
         Document query = new Document();
         query.append(MongoParser.LABEL, label);
         query.append(MongoParser.TIME, new BasicDBObject("$gt", time));
+        query.append(MongoParser.SUBJECT_KEY, parser.subjectKeyFilter(subject));
         query.append(MongoParser.SUBJECT, subject);
 
-        FindIterable<Document> documents = mongodb
-                .getCollection(COLLECTION_EVIDENCE)
+        FindIterable<Document> documents = collection(COLLECTION_EVIDENCE)
                 .find(query);
 
         return this.parseEvidences(documents);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Computed by MongoDB with an aggregation pipeline ($match and $group).
+     *
+     * @param label
+     * @param subject
+     * @param from
+     * @param till
+     * @return
+     */
+    @Override
+    public EvidenceAggregate aggregateEvidence(
+            final String label, final Map<String, String> subject,
+            final long from, final long till) {
+
+        Document match = new Document()
+                .append(MongoParser.LABEL, label)
+                .append(MongoParser.SUBJECT_KEY,
+                        parser.subjectKeyFilter(subject))
+                .append(MongoParser.SUBJECT, subject)
+                .append(MongoParser.TIME,
+                        new Document("$gt", from).append("$lte", till));
+
+        String score = "$" + MongoParser.SCORE;
+        Document group = new Document("_id", null)
+                .append("count", new Document("$sum", 1))
+                .append("min", new Document("$min", score))
+                .append("max", new Document("$max", score))
+                .append("avg", new Document("$avg", score))
+                .append("sum", new Document("$sum", score));
+
+        Document result = collection(COLLECTION_EVIDENCE)
+                .aggregate(Arrays.asList(
+                        new Document("$match", match),
+                        new Document("$group", group)))
+                .first();
+
+        EvidenceAggregate aggregate = new EvidenceAggregate();
+        if (result == null) {
+            return aggregate;
+        }
+
+        aggregate.setCount(result.get("count", Number.class).longValue());
+        aggregate.setMin(result.get("min", Number.class).doubleValue());
+        aggregate.setMax(result.get("max", Number.class).doubleValue());
+        aggregate.setAvg(result.get("avg", Number.class).doubleValue());
+        aggregate.setSum(result.get("sum", Number.class).doubleValue());
+
+        // the ids are read with a cursor, as pushing all of them in the
+        // group could exceed the maximum size of a document
+        FindIterable<Document> ids = collection(COLLECTION_EVIDENCE)
+                .find(match)
+                .projection(new Document("_id", 1));
+        for (Document id : ids) {
+            aggregate.getIds().add(id.getObjectId("_id").toString());
+        }
+        return aggregate;
+    }
+
     private Evidence[] parseEvidences(final FindIterable<Document> documents) {
         List<Evidence> evidences = new ArrayList<>();
 
@@ -491,7 +1346,17 @@ public final class RequestHandler implements ServerInterface {
         Map<String, Object> status = new HashMap<>();
         status.putAll(this.markStatus());
         status.putAll(this.dbStatus());
+        status.putAll(indexes.getStatus());
+
+        status.put("datastore.latest_evidences.ready", latest_ready);
+
+        WriteBehindBuffer buffer = this.write_behind;
+        if (buffer != null) {
+            status.putAll(buffer.getStatus());
+        }
         status.putAll(this.executorStatus());
+        status.putAll(activation_controller.getStatus());
+        status.putAll(ConnectionPool.getStatus());
         return status;
     }
 
@@ -528,17 +1393,14 @@ public final class RequestHandler implements ServerInterface {
         Map<String, Object> status = new HashMap<>();
 
         try {
-            status.put(
-                    "db.data.count",
-                    mongodb.getCollection(COLLECTION_DATA).countDocuments());
+            status.put("db.data.count", countAllRawData());
             status.put(
                     "db.evidence.count",
-                    mongodb.getCollection(COLLECTION_EVIDENCE)
-                            .countDocuments());
+                    collection(COLLECTION_EVIDENCE).countDocuments());
 
             Document stats = mongodb.runCommand(
                     Document.parse(
-                            "{ collStats: '" + COLLECTION_DATA
+                            "{ collStats: '" + dataCollection()
                                     + "', scale: 1048576}"));
             status.put("db.data.size", stats.getInteger("size"));
 
@@ -562,8 +1424,7 @@ public final class RequestHandler implements ServerInterface {
         Document query = new Document()
                 .append("time", new Document("$gt", start_time));
 
-        FindIterable<Document> documents = mongodb
-                .getCollection("statistics")
+        FindIterable<Document> documents = collection("statistics")
                 .find(query);
 
 
@@ -581,11 +1442,55 @@ public final class RequestHandler implements ServerInterface {
         Document query = new Document()
                 .append("_id", -1);
 
+        if (bucket_span == 0) {
+            return this.parseData(
+                collection(COLLECTION_DATA)
+                        .find()
+                        .sort(query)
+                        .limit(100));
+        }
+
+        // the records of the last created buckets
+        List<Document> pipeline = new ArrayList<>();
+        pipeline.add(new Document("$sort", query));
+        pipeline.add(new Document("$limit", 100));
+        pipeline.addAll(parser.unwindBuckets());
+        pipeline.add(new Document("$sort", query));
+        pipeline.add(new Document("$limit", 100));
         return this.parseData(
-            mongodb.getCollection(COLLECTION_DATA)
-                    .find()
-                    .sort(query)
-                    .limit(100));
+                collection(COLLECTION_BUCKETS).aggregate(pipeline));
+    }
+
+    /**
+     * Name of the collection that contains raw data (depends on the
+     * layout).
+     */
+    private String dataCollection() {
+        if (bucket_span == 0) {
+            return COLLECTION_DATA;
+        }
+        return COLLECTION_BUCKETS;
+    }
+
+    /**
+     * Total number of raw data records.
+     */
+    private long countAllRawData() {
+        if (bucket_span == 0) {
+            return collection(COLLECTION_DATA).countDocuments();
+        }
+
+        Document result = collection(COLLECTION_BUCKETS)
+                .aggregate(Collections.singletonList(new Document(
+                        "$group", new Document("_id", null).append(
+                                "count",
+                                new Document("$sum",
+                                        "$" + MongoParser.COUNT)))))
+                .first();
+        if (result == null) {
+            return 0;
+        }
+        return result.get("count", Number.class).longValue();
     }
 
     @Override
@@ -594,7 +1499,7 @@ public final class RequestHandler implements ServerInterface {
                 .append("_id", -1);
 
         return this.parseEvidences(
-            mongodb.getCollection(COLLECTION_EVIDENCE)
+            collection(COLLECTION_EVIDENCE)
                     .find()
                     .sort(query)
                     .limit(100));
@@ -0,0 +1,326 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.datastore;
+
+import be.cylab.mark.core.RawData;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Buffer raw data documents in memory, and write them in batches using a
+ * separate thread. A batch is written when it reaches batch_size documents,
+ * or when the oldest document has been waiting for flush_interval
+ * milliseconds. The listener is informed when the raw data is written.
+ *
+ * When the buffer is full, add() blocks until some space is available
+ * (the writer is too slow).
+ *
+ * If the writer fails (for example because MongoDB is not reachable), the
+ * batch is retried with an exponential backoff until it is written. In the
+ * mean time, no other batch is written (and add() blocks when the buffer is
+ * full). When the buffer is closed, a batch is retried only CLOSE_RETRIES
+ * times: documents that are still not written are lost.
+ *
+ * @author tibo
+ */
+final class WriteBehindBuffer {
+
+    /**
+     * Write a batch of documents. Throws an exception if the batch must be
+     * retried, and returns the documents that cannot be written at all
+     * (invalid documents, which are dropped).
+     */
+    interface Writer {
+        List<Document> write(List<Document> documents);
+    }
+
+    /**
+     * Informed of the raw data that has been written.
+     */
+    interface Listener {
+        void written(RawData[] data);
+    }
+
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(WriteBehindBuffer.class);
+
+    /**
+     * Number of times a batch is retried when the buffer is closed.
+     */
+    private static final int CLOSE_RETRIES = 3;
+
+    /**
+     * Delay (ms) before the first retry, doubled for each retry.
+     */
+    private static final long RETRY_DELAY = 100;
+
+    /**
+     * Max delay (ms) between two retries.
+     */
+    private static final long MAX_RETRY_DELAY = 5000;
+
+    /**
+     * Added by close() to wake up the writer thread (compared by identity).
+     */
+    private static final Document CLOSE = new Document();
+
+    private final Writer writer;
+    private final Listener listener;
+    private final BlockingQueue<Entry> queue;
+    private final int batch_size;
+    private final long flush_interval;
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    // statistics of the last batch
+    private volatile long last_batch_size;
+    private volatile long last_flush_latency;
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+
+    /**
+     *
+     * @param writer
+     * @param listener informed when raw data is written
+     * @param capacity max number of documents in the buffer
+     * @param batch_size max number of documents written at once
+     * @param flush_interval max time a document remains in the buffer (ms)
+     */
+    WriteBehindBuffer(
+            final Writer writer, final Listener listener, final int capacity,
+            final int batch_size, final long flush_interval) {
+
+        this.writer = writer;
+        this.listener = listener;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batch_size = batch_size;
+        this.flush_interval = flush_interval;
+        this.thread = new Thread(this::run, "write-behind");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Start the writer thread.
+     */
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Add a document to the buffer. Blocks if the buffer is full.
+     *
+     * @param document
+     * @param data the raw data, sent to the listener when it is written
+     * @throws InterruptedException if interrupted while the buffer is full
+     */
+    void add(final Document document, final RawData data)
+            throws InterruptedException {
+        queue.put(new Entry(document, data));
+    }
+
+    /**
+     * Write the documents still in the buffer, and stop the writer thread.
+     *
+     * @throws InterruptedException if interrupted while waiting for the
+     * writer thread
+     */
+    void close() throws InterruptedException {
+        running = false;
+        queue.put(new Entry(CLOSE, null));
+        thread.join();
+    }
+
+    /**
+     * Number of documents waiting in the buffer, size and latency (in ms)
+     * of the last batch, and number of documents written (or lost because
+     * of an error), and number of retries. The latency is the time between
+     * the oldest document of the batch was added to the buffer, and the end
+     * of the write.
+     *
+     * @return
+     */
+    Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("datastore.write_behind.depth", queue.size());
+        status.put("datastore.write_behind.flush.size", last_batch_size);
+        status.put("datastore.write_behind.flush.latency", last_flush_latency);
+        status.put("datastore.write_behind.written", written.get());
+        status.put("datastore.write_behind.failed", failed.get());
+        status.put("datastore.write_behind.retries", retries.get());
+        return status;
+    }
+
+    private void run() {
+        List<Entry> batch = new ArrayList<>(batch_size);
+
+        while (running || !queue.isEmpty()) {
+            try {
+                fill(batch);
+            } catch (InterruptedException ex) {
+                // documents still in the queue are written before exiting
+                running = false;
+            }
+
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Wait for the first document, then wait at most flush_interval for the
+     * batch to be full.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void fill(final List<Entry> batch) throws InterruptedException {
+        Entry first = queue.poll(flush_interval, TimeUnit.MILLISECONDS);
+        if (first == null || first.document == CLOSE) {
+            return;
+        }
+        batch.add(first);
+
+        long deadline = System.currentTimeMillis() + flush_interval;
+        while (batch.size() < batch_size) {
+            queue.drainTo(batch, batch_size - batch.size());
+            if (batch.removeIf(entry -> entry.document == CLOSE)) {
+                return;
+            }
+
+            long remaining = deadline - System.currentTimeMillis();
+            if (batch.size() == batch_size || remaining <= 0) {
+                return;
+            }
+
+            Entry next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+            if (next == null || next.document == CLOSE) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    /**
+     * Write the batch (retry until it is written), then inform the listener.
+     */
+    private void flush(final List<Entry> batch) {
+        List<Document> documents = new ArrayList<>(batch.size());
+        for (Entry entry : batch) {
+            documents.add(entry.document);
+        }
+
+        List<Document> invalid = write(documents);
+        if (!invalid.isEmpty()) {
+            LOGGER.error("Dropped " + invalid.size() + " invalid documents");
+        }
+
+        // documents are compared by identity
+        Set<Document> not_written = Collections.newSetFromMap(
+                new IdentityHashMap<>());
+        not_written.addAll(invalid);
+        List<RawData> data = new ArrayList<>(batch.size());
+        for (Entry entry : batch) {
+            if (!not_written.contains(entry.document)) {
+                data.add(entry.data);
+            }
+        }
+
+        written.addAndGet(data.size());
+        failed.addAndGet(batch.size() - data.size());
+        last_batch_size = batch.size();
+
+        // the queue is FIFO: the first entry is the oldest one
+        last_flush_latency = System.currentTimeMillis() - batch.get(0).time;
+
+        if (!data.isEmpty()) {
+            listener.written(data.toArray(new RawData[data.size()]));
+        }
+    }
+
+    /**
+     * Write the documents, and retry (with an exponential backoff) while
+     * the writer fails.
+     *
+     * @return the documents that could not be written
+     */
+    private List<Document> write(final List<Document> documents) {
+        long delay = RETRY_DELAY;
+        for (int retry = 0;; retry++) {
+            try {
+                return writer.write(documents);
+            } catch (RuntimeException ex) {
+                if (!running && retry >= CLOSE_RETRIES) {
+                    LOGGER.error("Failed to write " + documents.size()
+                            + " documents, which are lost : "
+                            + ex.getMessage());
+                    return documents;
+                }
+
+                LOGGER.warn("Failed to write " + documents.size()
+                        + " documents, retry in " + delay + " ms : "
+                        + ex.getMessage());
+            }
+
+            retries.incrementAndGet();
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ex) {
+                // only CLOSE_RETRIES retries are performed from now on
+                running = false;
+            }
+            delay = Math.min(2 * delay, MAX_RETRY_DELAY);
+        }
+    }
+
+    /**
+     * A buffered document, the corresponding raw data, and the time it was
+     * added to the buffer.
+     */
+    private static final class Entry {
+        private final Document document;
+        private final RawData data;
+        private final long time;
+
+        Entry(final Document document, final RawData data) {
+            this.document = document;
+            this.data = data;
+            this.time = System.currentTimeMillis();
+        }
+    }
+}
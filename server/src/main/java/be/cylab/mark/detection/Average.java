@@ -31,11 +31,13 @@ import be.cylab.mark.core.DetectionAgentProfile;
 import be.cylab.mark.core.Event;
 import be.cylab.mark.core.Evidence;
 import be.cylab.mark.core.ServerInterface;
+import be.cylab.mark.core.ThreadSafe;
 
 /**
  *
  * @author Thibault Debatty
  */
+@ThreadSafe
 public final class Average implements DetectionAgentInterface {
 
     private static final int DEFAULT_MIN_DENOMINATOR = 3;
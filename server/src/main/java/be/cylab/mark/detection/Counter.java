@@ -28,6 +28,7 @@ import be.cylab.mark.core.DetectionAgentProfile;
 import be.cylab.mark.core.Event;
 import be.cylab.mark.core.Evidence;
 import be.cylab.mark.core.ServerInterface;
+import be.cylab.mark.core.ThreadSafe;
 
 /**
  * A simple data counter. This detector counts the number of data records
@@ -51,6 +52,7 @@ import be.cylab.mark.core.ServerInterface;
  * </pre>
  * @author Thibault Debatty
  */
+@ThreadSafe
 public final class Counter implements DetectionAgentInterface {
 
     private static final int DEFAULT_TIME_WINDOW = 3600;
@@ -67,8 +69,8 @@ public final class Counter implements DetectionAgentInterface {
         long till = event.getTimestamp();
         long from = till - (time_window * 1000);
 
-        int count = datastore.findRawData(
-                event.getLabel(), event.getSubject(), from, till).length;
+        long count = datastore.countRawData(
+                event.getLabel(), event.getSubject(), from, till);
 
         Evidence ev = new Evidence();
         ev.setReport(
@@ -35,6 +35,7 @@ import be.cylab.mark.core.DetectionAgentProfile;
 import be.cylab.mark.core.Event;
 import be.cylab.mark.core.Evidence;
 import be.cylab.mark.core.RawData;
+import be.cylab.mark.core.RawDataCursor;
 import be.cylab.mark.core.ServerInterface;
 import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.transform.DftNormalization;
@@ -137,19 +138,24 @@ public class Frequency implements DetectionAgentInterface {
         long start_time = event.getTimestamp() - time_window;
         long end_time = event.getTimestamp();
 
-        RawData[] data = si.findRawData(
+        // records are consumed one page at a time, and only the bins are
+        // kept in memory. We only need the time of each record.
+        RawDataCursor data = new RawDataCursor(
+                si,
                 event.getLabel(),
                 event.getSubject(),
                 start_time,
-                end_time);
+                end_time,
+                new String[]{"time"});
 
-        if (data.length < min_raw_data) {
+        // count the number of data records in each time bin
+        Bins bins = bin(data, start_time, end_time);
+        int[] time_bins = bins.counts;
+
+        if (bins.data_count < min_raw_data) {
             return;
         }
 
-        // count the number of data records in each time bin
-        int[] time_bins = bin(data, start_time, end_time);
-
         // Perform FFT
         FastFourierTransformer fft_transformer = new FastFourierTransformer(
                 DftNormalization.STANDARD);
@@ -200,13 +206,13 @@ public class Frequency implements DetectionAgentInterface {
         String figure_spectrum_path = createSpectrumFigure(freqs, values,
                 base_peak_freq,
                 computeThreshold(values),
-                event.getSubject().toString(), data[0].getTime());
+                event.getSubject().toString(), bins.first_time);
 
         String figure_smooth_spectrum_path = createSpectrumFigure(freqs,
                 smoothed_values, base_peak_freq,
                 smoothed_threshold,
                 "smoothing for " + event.getSubject().toString(),
-                data[0].getTime());
+                bins.first_time);
 
         String figure_timeseries_path = createTimeseriesFigure(time_bins,
                 start_time,
@@ -235,7 +241,7 @@ public class Frequency implements DetectionAgentInterface {
         evidence.setScore(score);
         evidence.setSubject(event.getSubject());
         evidence.setLabel(dap.getLabel());
-        evidence.setTime(data[data.length - 1].getTime());
+        evidence.setTime(bins.last_time);
         evidence.setReport(freq_report);
         si.addEvidence(evidence);
     }
@@ -546,14 +552,31 @@ public class Frequency implements DetectionAgentInterface {
         return doubles;
     }
 
-    private int[] bin(
-            final RawData[] data,
+    /**
+     * Result of bin(): number of records in each time bin, total number of
+     * records, and time of the first and last record.
+     */
+    private static final class Bins {
+        private int[] counts;
+        private int data_count;
+        private long first_time;
+        private long last_time;
+    }
+
+    /**
+     * Count the number of records in each time bin.
+     * @throws Throwable if fetching the records fails
+     */
+    private Bins bin(
+            final RawDataCursor data,
             final long start_time,
-            final long end_time) {
+            final long end_time) throws Throwable {
         // count the number of elements in each time bin
         long size = pow2gt(time_window / sampling_interval);
-        int[] time_bins = new int[(int) size];
-        for (RawData record : data) {
+        Bins bins = new Bins();
+        bins.counts = new int[(int) size];
+        while (data.hasNext()) {
+            RawData record = data.next();
             long time = record.getTime();
             if (time < start_time) {
                 throw new IllegalArgumentException(
@@ -568,9 +591,16 @@ public class Frequency implements DetectionAgentInterface {
             }
 
             long position = (time - start_time) / sampling_interval;
-            time_bins[(int) position]++;
+            bins.counts[(int) position]++;
+
+            // records are sorted by time
+            if (bins.data_count == 0) {
+                bins.first_time = time;
+            }
+            bins.last_time = time;
+            bins.data_count++;
         }
 
-        return time_bins;
+        return bins;
     }
 }
@@ -27,7 +27,9 @@ import be.cylab.mark.core.DetectionAgentInterface;
 import be.cylab.mark.core.DetectionAgentProfile;
 import be.cylab.mark.core.Event;
 import be.cylab.mark.core.Evidence;
+import be.cylab.mark.core.EvidenceAggregate;
 import be.cylab.mark.core.ServerInterface;
+import be.cylab.mark.core.ThreadSafe;
 import java.time.Instant;
 import java.util.Map;
 
@@ -52,6 +54,7 @@ import java.util.Map;
  *
  * @author Thibault Debatty
  */
+@ThreadSafe
 public class Max implements DetectionAgentInterface {
 
     private static final int DEFAULT_TIME_WINDOW = 3600;
@@ -71,20 +74,21 @@ public class Max implements DetectionAgentInterface {
         long till = event.getTimestamp();
         long from = till - (time_window * 1000);
 
-        Evidence[] evidences =
-                datastore.findEvidenceSince(label, subject, from);
+        // the max is computed by the datastore
+        // like findEvidenceSince, the window is not bounded by till
+        EvidenceAggregate aggregate = datastore.aggregateEvidence(
+                label, subject, from, Long.MAX_VALUE);
 
         Evidence new_ev = new Evidence();
         double max = 0;
-        for (Evidence ev : evidences) {
-            if (ev.getScore() > max) {
-                max = ev.getScore();
-            }
-            new_ev.references().add(ev.getId());
+        if (aggregate.getMax() > max) {
+            max = aggregate.getMax();
         }
+        new_ev.references().addAll(aggregate.getIds());
 
         String report =
-                "Found <b>" + evidences.length + "</b> evidences with label "
+                "Found <b>" + aggregate.getCount() + "</b> evidences "
+                + "with label "
                 + "<b>" + event.getLabel() + "</b> since "
                 + Instant.ofEpochMilli(from).toString() + "<br>"
                 + "Highest score was " + max;
@@ -34,6 +34,7 @@ import be.cylab.mark.core.DetectionAgentInterface;
 import be.cylab.mark.core.DetectionAgentProfile;
 import be.cylab.mark.core.Event;
 import be.cylab.mark.core.ServerInterface;
+import be.cylab.mark.core.ThreadSafe;
 
 /**
  * Detection agent that runs an external command.
@@ -43,6 +44,7 @@ import be.cylab.mark.core.ServerInterface;
  * - any other parameter you provide will be transmitted to the command
  * @author Thibault Debatty
  */
+@ThreadSafe
 public class Run implements DetectionAgentInterface {
 
     static final String KEY_COMMAND = "command";
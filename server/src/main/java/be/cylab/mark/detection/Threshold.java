@@ -28,6 +28,7 @@ import be.cylab.mark.core.DetectionAgentProfile;
 import be.cylab.mark.core.Event;
 import be.cylab.mark.core.Evidence;
 import be.cylab.mark.core.ServerInterface;
+import be.cylab.mark.core.ThreadSafe;
 import java.util.Map;
 
 /**
@@ -50,6 +51,7 @@ import java.util.Map;
  * </pre>
  * @author tibo
  */
+@ThreadSafe
 public class Threshold implements DetectionAgentInterface {
 
     private static final double DEFAULT_VALUE = 0.5;
@@ -27,7 +27,9 @@ import be.cylab.mark.core.DetectionAgentInterface;
 import be.cylab.mark.core.DetectionAgentProfile;
 import be.cylab.mark.core.Event;
 import be.cylab.mark.core.Evidence;
+import be.cylab.mark.core.EvidenceAggregate;
 import be.cylab.mark.core.ServerInterface;
+import be.cylab.mark.core.ThreadSafe;
 import java.time.Instant;
 import java.util.Map;
 
@@ -51,6 +53,7 @@ import java.util.Map;
  * </pre>
  * @author Thibault Debatty
  */
+@ThreadSafe
 public class TimeAverage implements DetectionAgentInterface {
 
     private static final int DEFAULT_TIME_WINDOW = 3600;
@@ -70,22 +73,22 @@ public class TimeAverage implements DetectionAgentInterface {
         long till = event.getTimestamp();
         long from = till - (time_window * 1000);
 
-        Evidence[] evidences =
-                datastore.findEvidenceSince(label, subject, from);
+        // the sum and average are computed by the datastore
+        // like findEvidenceSince, the window is not bounded by till
+        EvidenceAggregate aggregate = datastore.aggregateEvidence(
+                label, subject, from, Long.MAX_VALUE);
 
         Evidence new_ev = new Evidence();
-        double sum = 0;
-        for (Evidence ev : evidences) {
-            sum += ev.getScore();
-            new_ev.references().add(ev.getId());
-        }
-        double score = sum / evidences.length;
+        new_ev.references().addAll(aggregate.getIds());
+        double sum = aggregate.getSum();
+        double score = aggregate.getAvg();
 
         String report =
-                "Found <b>" + evidences.length + "</b> evidences with label "
+                "Found <b>" + aggregate.getCount() + "</b> evidences "
+                + "with label "
                 + "<b>" + event.getLabel() + "</b> since "
                 + Instant.ofEpochMilli(from).toString() + "<br>"
-                + "Average = " + sum + " / " + evidences.length + " = "
+                + "Average = " + sum + " / " + aggregate.getCount() + " = "
                 + score;
 
         new_ev.setSubject(subject);
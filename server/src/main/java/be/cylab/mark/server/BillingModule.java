@@ -31,8 +31,12 @@ import be.cylab.mark.activation.ActivationControllerInterface;
 import be.cylab.mark.activation.ExecutorInterface;
 import be.cylab.mark.activation.IgniteExecutor;
 import be.cylab.mark.activation.ThreadsExecutor;
+import be.cylab.mark.activation.VirtualThreadsExecutor;
+import be.cylab.mark.client.ConnectionPool;
 import com.google.inject.Provides;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.ServerAddress;
 import com.mongodb.client.MongoDatabase;
 import org.slf4j.LoggerFactory;
 
@@ -72,12 +76,18 @@ public final class BillingModule extends AbstractModule {
         }
         bind(Config.class).toInstance(config);
 
+        // shared by all clients (detectors) running in this JVM
+        ConnectionPool.setSize(config.getClientPoolSize());
+
         //Associate Interface to class
         bind(ActivationControllerInterface.class).to(
                 ActivationController.class);
 
         if (config.getExecutorClass().equals(IgniteExecutor.class.getName())) {
             bind(ExecutorInterface.class).to(IgniteExecutor.class);
+        } else if (config.getExecutorClass().equals(
+                VirtualThreadsExecutor.class.getName())) {
+            bind(ExecutorInterface.class).to(VirtualThreadsExecutor.class);
         } else {
             bind(ExecutorInterface.class).to(ThreadsExecutor.class);
         }
@@ -85,15 +95,26 @@ public final class BillingModule extends AbstractModule {
     }
 
     /**
-     * Create and configure the mongodb instance.
+     * Create and configure the mongodb instance. The write concern and read
+     * preference of each collection are configured by the datastore.
      * @param config
      * @return
      */
     @Provides
     public MongoDatabase mongoDB(final Config config) {
 
+        MongoClientOptions options = MongoClientOptions.builder()
+                .connectionsPerHost(config.getMongoPoolSize())
+                .threadsAllowedToBlockForConnectionMultiplier(
+                        config.getMongoWaitQueueMultiplier())
+                .maxWaitTime(config.getMongoWaitQueueTimeout())
+                .connectTimeout(config.getMongoConnectTimeout())
+                .socketTimeout(config.getMongoSocketTimeout())
+                .build();
+
         MongoClient mongo = new MongoClient(
-                config.getMongoHost(), config.getMongoPort());
+                new ServerAddress(config.getMongoHost(), config.getMongoPort()),
+                options);
         MongoDatabase db = mongo.getDatabase(config.getMongoDb());
 
         if (config.isMongoClean()) {
@@ -2,7 +2,10 @@ package be.cylab.mark.server;
 
 import be.cylab.mark.activation.IgniteExecutor;
 import be.cylab.mark.activation.ThreadsExecutor;
+import be.cylab.mark.client.WireFormat;
 import com.google.inject.Singleton;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -69,12 +72,192 @@ public final class Config {
     private int update_interval = DEFAULT_UPDATE_INTERVAL;
     private static final int DEFAULT_UPDATE_INTERVAL = 10;
 
+    /**
+     * Activation mode: "interval" (detectors are triggered every
+     * update_interval seconds) or "event" (detectors are triggered as soon as
+     * new events are received, with a delay of activation_delay
+     * milliseconds to coalesce events).
+     */
+    private String activation_mode = DEFAULT_ACTIVATION_MODE;
+
+    /**
+     * Activation mode: trigger detectors every update_interval seconds.
+     */
+    public static final String ACTIVATION_MODE_INTERVAL = "interval";
+
+    /**
+     * Activation mode: trigger detectors when new events are received.
+     */
+    public static final String ACTIVATION_MODE_EVENT = "event";
+    private static final String DEFAULT_ACTIVATION_MODE =
+            ACTIVATION_MODE_INTERVAL;
+
+    /**
+     * In event activation mode: minimum delay (in milliseconds) between
+     * reception of an event and activation of the detectors. Events received
+     * during this delay are coalesced.
+     */
+    private int activation_delay = DEFAULT_ACTIVATION_DELAY;
+    private static final int DEFAULT_ACTIVATION_DELAY = 100;
+
+    /**
+     * Max number of (detector, subject) pairs for which the activation
+     * controller keeps track of the last trigger time (to enforce
+     * trigger_interval). Rounded to the next power of 2.
+     */
+    private int trigger_tracking_capacity =
+            DEFAULT_TRIGGER_TRACKING_CAPACITY;
+    private static final int DEFAULT_TRIGGER_TRACKING_CAPACITY = 1 << 20;
+
+    /**
+     * Max number of subjects analyzed by a single job, for detectors that
+     * implement BatchDetectionAgentInterface. 1 disables batches.
+     */
+    private int batch_size = DEFAULT_BATCH_SIZE;
+    private static final int DEFAULT_BATCH_SIZE = 1;
+
     /**
      * Empty the MONGO database before starting (useful for testing).
      */
     private boolean mongo_clean = DEFAULT_MONGO_CLEAN;
     private static final boolean DEFAULT_MONGO_CLEAN = false;
 
+    /**
+     * Create the indexes required by the queries of the datastore when the
+     * server starts (indexes that already exist are left unchanged).
+     */
+    private boolean mongo_indexes = DEFAULT_MONGO_INDEXES;
+    private static final boolean DEFAULT_MONGO_INDEXES = true;
+
+    /**
+     * Build the indexes in the background: the server starts immediately and
+     * the collections remain available while indexes are built.
+     */
+    private boolean mongo_index_background = DEFAULT_MONGO_INDEX_BACKGROUND;
+    private static final boolean DEFAULT_MONGO_INDEX_BACKGROUND = true;
+
+    /**
+     * Acknowledge raw data as soon as it is buffered in memory, and write it
+     * to MongoDB in batches. Buffered data is lost if the server crashes.
+     */
+    private boolean write_behind = DEFAULT_WRITE_BEHIND;
+    private static final boolean DEFAULT_WRITE_BEHIND = false;
+
+    /**
+     * Max number of buffered raw data records (write-behind). Adding data
+     * blocks when the buffer is full.
+     */
+    private int write_behind_capacity = DEFAULT_WRITE_BEHIND_CAPACITY;
+    private static final int DEFAULT_WRITE_BEHIND_CAPACITY = 100000;
+
+    /**
+     * Max number of raw data records written at once (write-behind).
+     */
+    private int write_behind_batch_size = DEFAULT_WRITE_BEHIND_BATCH_SIZE;
+    private static final int DEFAULT_WRITE_BEHIND_BATCH_SIZE = 1000;
+
+    /**
+     * Max time (in ms) a record remains in the buffer (write-behind). Should
+     * be shorter than activation_delay.
+     */
+    private int write_behind_flush_interval =
+            DEFAULT_WRITE_BEHIND_FLUSH_INTERVAL;
+    private static final int DEFAULT_WRITE_BEHIND_FLUSH_INTERVAL = 50;
+
+    /**
+     * Write concern for raw data (acknowledged, unacknowledged, journaled,
+     * majority, w1, w2 or w3).
+     */
+    private String mongo_data_write_concern = DEFAULT_MONGO_WRITE_CONCERN;
+    private static final String DEFAULT_MONGO_WRITE_CONCERN = "acknowledged";
+
+    /**
+     * Read preference for raw data (primary, primaryPreferred, secondary,
+     * secondaryPreferred or nearest).
+     */
+    private String mongo_data_read_preference = DEFAULT_MONGO_READ_PREFERENCE;
+    private static final String DEFAULT_MONGO_READ_PREFERENCE = "primary";
+
+    /**
+     * Write concern for evidences.
+     */
+    private String mongo_evidence_write_concern = DEFAULT_MONGO_WRITE_CONCERN;
+
+    /**
+     * Read preference for evidences.
+     */
+    private String mongo_evidence_read_preference =
+            DEFAULT_MONGO_READ_PREFERENCE;
+
+    /**
+     * Max number of connections to MongoDB.
+     */
+    private int mongo_pool_size = DEFAULT_MONGO_POOL_SIZE;
+    private static final int DEFAULT_MONGO_POOL_SIZE = 100;
+
+    /**
+     * Max number of threads waiting for a connection, as a multiple of
+     * mongo_pool_size.
+     */
+    private int mongo_wait_queue_multiplier =
+            DEFAULT_MONGO_WAIT_QUEUE_MULTIPLIER;
+    private static final int DEFAULT_MONGO_WAIT_QUEUE_MULTIPLIER = 5;
+
+    /**
+     * Max time (in ms) a thread waits for a connection.
+     */
+    private int mongo_wait_queue_timeout = DEFAULT_MONGO_WAIT_QUEUE_TIMEOUT;
+    private static final int DEFAULT_MONGO_WAIT_QUEUE_TIMEOUT = 120000;
+
+    /**
+     * Connection timeout (in ms).
+     */
+    private int mongo_connect_timeout = DEFAULT_MONGO_CONNECT_TIMEOUT;
+    private static final int DEFAULT_MONGO_CONNECT_TIMEOUT = 10000;
+
+    /**
+     * Socket (read) timeout (in ms), 0 = no timeout.
+     */
+    private int mongo_socket_timeout = DEFAULT_MONGO_SOCKET_TIMEOUT;
+    private static final int DEFAULT_MONGO_SOCKET_TIMEOUT = 0;
+
+    /**
+     * Raw data layout: one document for each record.
+     */
+    public static final String RAW_DATA_LAYOUT_DOCUMENTS = "documents";
+
+    /**
+     * Raw data layout: records grouped by (label, subject, time bucket).
+     */
+    public static final String RAW_DATA_LAYOUT_BUCKETS = "buckets";
+
+    /**
+     * Storage layout of raw data (documents or buckets). Data is not
+     * migrated: the datastore refuses to start if raw data is stored with
+     * the other layout.
+     */
+    private String raw_data_layout = DEFAULT_RAW_DATA_LAYOUT;
+    private static final String DEFAULT_RAW_DATA_LAYOUT =
+            RAW_DATA_LAYOUT_DOCUMENTS;
+
+    /**
+     * Time span (in ms) of a bucket of raw data.
+     */
+    private int raw_data_bucket_span = DEFAULT_RAW_DATA_BUCKET_SPAN;
+    private static final int DEFAULT_RAW_DATA_BUCKET_SPAN = 3600000;
+
+    /**
+     * Max number of records in a bucket of raw data.
+     */
+    private int raw_data_bucket_records = DEFAULT_RAW_DATA_BUCKET_RECORDS;
+    private static final int DEFAULT_RAW_DATA_BUCKET_RECORDS = 1000;
+
+    /**
+     * Raw data older than this (in seconds) is deleted, 0 = never.
+     */
+    private int raw_data_retention = DEFAULT_RAW_DATA_RETENTION;
+    private static final int DEFAULT_RAW_DATA_RETENTION = 0;
+
     /**
      * MONGODB parameter : host.
      */
@@ -115,6 +298,74 @@ public final class Config {
 
     private String executor_class = ThreadsExecutor.class.getCanonicalName();
 
+    /**
+     * Max number of jobs that run concurrently, for executors that support
+     * it (VirtualThreadsExecutor).
+     */
+    private int executor_concurrency = DEFAULT_EXECUTOR_CONCURRENCY;
+    private static final int DEFAULT_EXECUTOR_CONCURRENCY = 1000;
+
+    /**
+     * Max number of HTTP connections kept open (and reused) by the clients
+     * of this JVM, like the detectors that are not bound to the datastore.
+     */
+    private int client_pool_size = DEFAULT_CLIENT_POOL_SIZE;
+    private static final int DEFAULT_CLIENT_POOL_SIZE = 100;
+
+    /**
+     * Wire format used by detectors to communicate with the datastore over
+     * HTTP: json, smile or cbor (binary formats are faster for large
+     * results). The datastore always accepts the three formats.
+     */
+    private String datastore_format = WireFormat.JSON;
+
+    /**
+     * Detectors that run in the same JVM as the datastore (ThreadsExecutor or
+     * VirtualThreadsExecutor) call the datastore directly, instead of using
+     * HTTP and JSON-RPC. Disabled by default, as requests are then not
+     * serialized (errors and request listeners behave differently).
+     */
+    private boolean datastore_local_binding = DEFAULT_DATASTORE_LOCAL_BINDING;
+    private static final boolean DEFAULT_DATASTORE_LOCAL_BINDING = false;
+
+    /**
+     * Max number of jobs waiting in the queue of the executor
+     * (ThreadsExecutor).
+     */
+    private int executor_queue_size = DEFAULT_EXECUTOR_QUEUE_SIZE;
+    private static final int DEFAULT_EXECUTOR_QUEUE_SIZE = 100000;
+
+    /**
+     * What to do with new jobs when the queue of the executor is full:
+     * drop-oldest, drop-newest or caller-runs. Jobs for the same detector
+     * and subject are already merged by the activation controller before
+     * they reach the executor.
+     */
+    private String executor_overload_policy = OVERLOAD_CALLER_RUNS;
+
+    /**
+     * Overload policy: drop the oldest job in the queue.
+     */
+    public static final String OVERLOAD_DROP_OLDEST = "drop-oldest";
+
+    /**
+     * Overload policy: drop the new job.
+     */
+    public static final String OVERLOAD_DROP_NEWEST = "drop-newest";
+
+    /**
+     * Overload policy: run the new job in the thread that submits it.
+     */
+    public static final String OVERLOAD_CALLER_RUNS = "caller-runs";
+
+    /**
+     * When more than activation_max_backlog jobs are waiting in the
+     * executor, the activation controller waits before triggering new jobs
+     * (events are still collected and coalesced in the mean time).
+     */
+    private int activation_max_backlog = DEFAULT_ACTIVATION_MAX_BACKLOG;
+    private static final int DEFAULT_ACTIVATION_MAX_BACKLOG = 50000;
+
     /**
      * Env variable for setting mongodb host.
      */
@@ -222,6 +473,28 @@ public final class Config {
         return new URL("http", server_host, server_port, "");
     }
 
+    /**
+     * Check that name is a valid write concern.
+     * @throws Exception if the write concern is invalid
+     */
+    private void checkWriteConcern(final String name) throws Exception {
+        if (WriteConcern.valueOf(name) == null) {
+            throw new Exception("Invalid mongo write concern: " + name);
+        }
+    }
+
+    /**
+     * Check that name is a valid read preference.
+     * @throws Exception if the read preference is invalid
+     */
+    private void checkReadPreference(final String name) throws Exception {
+        try {
+            ReadPreference.valueOf(name);
+        } catch (IllegalArgumentException ex) {
+            throw new Exception("Invalid mongo read preference: " + name);
+        }
+    }
+
     /**
      * Check that this configuration is valid.
      * @return
@@ -238,6 +511,86 @@ public final class Config {
         }
         this.getDatastoreUrl();
 
+        if (!activation_mode.equals(ACTIVATION_MODE_INTERVAL)
+                && !activation_mode.equals(ACTIVATION_MODE_EVENT)) {
+            throw new Exception(
+                    "Invalid activation mode: " + activation_mode);
+        }
+
+        if (trigger_tracking_capacity <= 0) {
+            throw new Exception(
+                    "Invalid trigger tracking capacity: "
+                    + trigger_tracking_capacity);
+        }
+
+        if (batch_size < 1) {
+            throw new Exception("Invalid batch size: " + batch_size);
+        }
+
+        if (executor_concurrency < 1) {
+            throw new Exception(
+                    "Invalid executor concurrency: " + executor_concurrency);
+        }
+
+        if (!executor_overload_policy.equals(OVERLOAD_DROP_OLDEST)
+                && !executor_overload_policy.equals(OVERLOAD_DROP_NEWEST)
+                && !executor_overload_policy.equals(OVERLOAD_CALLER_RUNS)) {
+            throw new Exception(
+                    "Invalid executor overload policy: "
+                    + executor_overload_policy);
+        }
+
+        if (executor_queue_size <= 0 || activation_max_backlog < 0) {
+            throw new Exception(
+                    "Invalid executor queue configuration: queue size must be"
+                    + " > 0, activation max backlog must be >= 0");
+        }
+
+        try {
+            WireFormat.check(datastore_format);
+        } catch (IllegalArgumentException ex) {
+            throw new Exception(ex.getMessage());
+        }
+
+        if (client_pool_size <= 0) {
+            throw new Exception(
+                    "Invalid client pool size: " + client_pool_size);
+        }
+
+        if (write_behind_capacity <= 0 || write_behind_batch_size <= 0
+                || write_behind_flush_interval <= 0) {
+            throw new Exception(
+                    "Invalid write-behind configuration: capacity, batch size"
+                    + " and flush interval must be > 0");
+        }
+
+        checkWriteConcern(mongo_data_write_concern);
+        checkWriteConcern(mongo_evidence_write_concern);
+        checkReadPreference(mongo_data_read_preference);
+        checkReadPreference(mongo_evidence_read_preference);
+
+        if (mongo_pool_size <= 0 || mongo_wait_queue_multiplier <= 0
+                || mongo_wait_queue_timeout < 0 || mongo_connect_timeout < 0
+                || mongo_socket_timeout < 0) {
+            throw new Exception(
+                    "Invalid mongo connection pool configuration: pool size"
+                    + " and wait queue multiplier must be > 0, timeouts must"
+                    + " be >= 0");
+        }
+
+        if (!raw_data_layout.equals(RAW_DATA_LAYOUT_DOCUMENTS)
+                && !raw_data_layout.equals(RAW_DATA_LAYOUT_BUCKETS)) {
+            throw new Exception(
+                    "Invalid raw data layout: " + raw_data_layout);
+        }
+
+        if (raw_data_bucket_span <= 0 || raw_data_bucket_records <= 0
+                || raw_data_retention < 0) {
+            throw new Exception(
+                    "Invalid raw data configuration: bucket span and bucket"
+                    + " records must be > 0, retention must be >= 0");
+        }
+
         return true;
     }
 
@@ -403,6 +756,71 @@ public final class Config {
         this.update_interval = update_interval;
     }
 
+    /**
+     *
+     * @return
+     */
+    public String getActivationMode() {
+        return activation_mode;
+    }
+
+    /**
+     *
+     * @param activation_mode
+     */
+    public void setActivationMode(final String activation_mode) {
+        this.activation_mode = activation_mode;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getActivationDelay() {
+        return activation_delay;
+    }
+
+    /**
+     *
+     * @param activation_delay
+     */
+    public void setActivationDelay(final int activation_delay) {
+        this.activation_delay = activation_delay;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getTriggerTrackingCapacity() {
+        return trigger_tracking_capacity;
+    }
+
+    /**
+     *
+     * @param trigger_tracking_capacity
+     */
+    public void setTriggerTrackingCapacity(
+            final int trigger_tracking_capacity) {
+        this.trigger_tracking_capacity = trigger_tracking_capacity;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getBatchSize() {
+        return batch_size;
+    }
+
+    /**
+     *
+     * @param batch_size
+     */
+    public void setBatchSize(final int batch_size) {
+        this.batch_size = batch_size;
+    }
+
     /**
      *
      * @return
@@ -546,4 +964,428 @@ public final class Config {
     public void setExecutorClass(final String executor_class) {
         this.executor_class = executor_class;
     }
+
+    /**
+     *
+     * @return
+     */
+    public int getExecutorConcurrency() {
+        return executor_concurrency;
+    }
+
+    /**
+     *
+     * @param executor_concurrency
+     */
+    public void setExecutorConcurrency(final int executor_concurrency) {
+        this.executor_concurrency = executor_concurrency;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getExecutorQueueSize() {
+        return executor_queue_size;
+    }
+
+    /**
+     *
+     * @param executor_queue_size
+     */
+    public void setExecutorQueueSize(final int executor_queue_size) {
+        this.executor_queue_size = executor_queue_size;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getExecutorOverloadPolicy() {
+        return executor_overload_policy;
+    }
+
+    /**
+     *
+     * @param executor_overload_policy
+     */
+    public void setExecutorOverloadPolicy(
+            final String executor_overload_policy) {
+        this.executor_overload_policy = executor_overload_policy;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getActivationMaxBacklog() {
+        return activation_max_backlog;
+    }
+
+    /**
+     *
+     * @param activation_max_backlog
+     */
+    public void setActivationMaxBacklog(final int activation_max_backlog) {
+        this.activation_max_backlog = activation_max_backlog;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public boolean isDatastoreLocalBinding() {
+        return datastore_local_binding;
+    }
+
+    /**
+     *
+     * @param datastore_local_binding
+     */
+    public void setDatastoreLocalBinding(
+            final boolean datastore_local_binding) {
+        this.datastore_local_binding = datastore_local_binding;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getClientPoolSize() {
+        return client_pool_size;
+    }
+
+    /**
+     *
+     * @param client_pool_size
+     */
+    public void setClientPoolSize(final int client_pool_size) {
+        this.client_pool_size = client_pool_size;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getDatastoreFormat() {
+        return datastore_format;
+    }
+
+    /**
+     *
+     * @param datastore_format
+     */
+    public void setDatastoreFormat(final String datastore_format) {
+        this.datastore_format = datastore_format;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public boolean isMongoIndexes() {
+        return mongo_indexes;
+    }
+
+    /**
+     *
+     * @param mongo_indexes
+     */
+    public void setMongoIndexes(final boolean mongo_indexes) {
+        this.mongo_indexes = mongo_indexes;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public boolean isMongoIndexBackground() {
+        return mongo_index_background;
+    }
+
+    /**
+     *
+     * @param mongo_index_background
+     */
+    public void setMongoIndexBackground(final boolean mongo_index_background) {
+        this.mongo_index_background = mongo_index_background;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public boolean isWriteBehind() {
+        return write_behind;
+    }
+
+    /**
+     *
+     * @param write_behind
+     */
+    public void setWriteBehind(final boolean write_behind) {
+        this.write_behind = write_behind;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getWriteBehindCapacity() {
+        return write_behind_capacity;
+    }
+
+    /**
+     *
+     * @param write_behind_capacity
+     */
+    public void setWriteBehindCapacity(final int write_behind_capacity) {
+        this.write_behind_capacity = write_behind_capacity;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getWriteBehindBatchSize() {
+        return write_behind_batch_size;
+    }
+
+    /**
+     *
+     * @param write_behind_batch_size
+     */
+    public void setWriteBehindBatchSize(final int write_behind_batch_size) {
+        this.write_behind_batch_size = write_behind_batch_size;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getWriteBehindFlushInterval() {
+        return write_behind_flush_interval;
+    }
+
+    /**
+     *
+     * @param write_behind_flush_interval
+     */
+    public void setWriteBehindFlushInterval(
+            final int write_behind_flush_interval) {
+        this.write_behind_flush_interval = write_behind_flush_interval;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getMongoDataWriteConcern() {
+        return mongo_data_write_concern;
+    }
+
+    /**
+     *
+     * @param mongo_data_write_concern
+     */
+    public void setMongoDataWriteConcern(
+            final String mongo_data_write_concern) {
+        this.mongo_data_write_concern = mongo_data_write_concern;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getMongoDataReadPreference() {
+        return mongo_data_read_preference;
+    }
+
+    /**
+     *
+     * @param mongo_data_read_preference
+     */
+    public void setMongoDataReadPreference(
+            final String mongo_data_read_preference) {
+        this.mongo_data_read_preference = mongo_data_read_preference;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getMongoEvidenceWriteConcern() {
+        return mongo_evidence_write_concern;
+    }
+
+    /**
+     *
+     * @param mongo_evidence_write_concern
+     */
+    public void setMongoEvidenceWriteConcern(
+            final String mongo_evidence_write_concern) {
+        this.mongo_evidence_write_concern = mongo_evidence_write_concern;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getMongoEvidenceReadPreference() {
+        return mongo_evidence_read_preference;
+    }
+
+    /**
+     *
+     * @param mongo_evidence_read_preference
+     */
+    public void setMongoEvidenceReadPreference(
+            final String mongo_evidence_read_preference) {
+        this.mongo_evidence_read_preference = mongo_evidence_read_preference;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getMongoPoolSize() {
+        return mongo_pool_size;
+    }
+
+    /**
+     *
+     * @param mongo_pool_size
+     */
+    public void setMongoPoolSize(final int mongo_pool_size) {
+        this.mongo_pool_size = mongo_pool_size;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getMongoWaitQueueMultiplier() {
+        return mongo_wait_queue_multiplier;
+    }
+
+    /**
+     *
+     * @param mongo_wait_queue_multiplier
+     */
+    public void setMongoWaitQueueMultiplier(
+            final int mongo_wait_queue_multiplier) {
+        this.mongo_wait_queue_multiplier = mongo_wait_queue_multiplier;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getMongoWaitQueueTimeout() {
+        return mongo_wait_queue_timeout;
+    }
+
+    /**
+     *
+     * @param mongo_wait_queue_timeout
+     */
+    public void setMongoWaitQueueTimeout(final int mongo_wait_queue_timeout) {
+        this.mongo_wait_queue_timeout = mongo_wait_queue_timeout;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getMongoConnectTimeout() {
+        return mongo_connect_timeout;
+    }
+
+    /**
+     *
+     * @param mongo_connect_timeout
+     */
+    public void setMongoConnectTimeout(final int mongo_connect_timeout) {
+        this.mongo_connect_timeout = mongo_connect_timeout;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getMongoSocketTimeout() {
+        return mongo_socket_timeout;
+    }
+
+    /**
+     *
+     * @param mongo_socket_timeout
+     */
+    public void setMongoSocketTimeout(final int mongo_socket_timeout) {
+        this.mongo_socket_timeout = mongo_socket_timeout;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getRawDataLayout() {
+        return raw_data_layout;
+    }
+
+    /**
+     *
+     * @param raw_data_layout
+     */
+    public void setRawDataLayout(final String raw_data_layout) {
+        this.raw_data_layout = raw_data_layout;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getRawDataBucketSpan() {
+        return raw_data_bucket_span;
+    }
+
+    /**
+     *
+     * @param raw_data_bucket_span
+     */
+    public void setRawDataBucketSpan(final int raw_data_bucket_span) {
+        this.raw_data_bucket_span = raw_data_bucket_span;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getRawDataBucketRecords() {
+        return raw_data_bucket_records;
+    }
+
+    /**
+     *
+     * @param raw_data_bucket_records
+     */
+    public void setRawDataBucketRecords(final int raw_data_bucket_records) {
+        this.raw_data_bucket_records = raw_data_bucket_records;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getRawDataRetention() {
+        return raw_data_retention;
+    }
+
+    /**
+     *
+     * @param raw_data_retention
+     */
+    public void setRawDataRetention(final int raw_data_retention) {
+        this.raw_data_retention = raw_data_retention;
+    }
 }
@@ -61,7 +61,9 @@ public class Server {
         sources.loadAgentsFromModulesDirectory();
 
         activation_controller.reload();
+        activation_controller.setLocalDatastore(datastore.getRequestHandler());
         activation_controller.start();
+        datastore.initDatabase();
         datastore.start();
         monitor.start();
         sources.start();
@@ -98,6 +100,7 @@ public class Server {
 
         LOGGER.info("Ask datastore to stop...");
         datastore.stop();
+        datastore.closeDatabase();
 
         LOGGER.info("Server stopped!");
     }
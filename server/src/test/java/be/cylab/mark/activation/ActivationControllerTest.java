@@ -155,16 +155,58 @@ public class ActivationControllerTest extends TestCase {
         assertEquals(456789, event.getTimestamp());
     }
 
-    public void testLabelsMatching() throws InvalidProfileException {
-        ActivationController controller
-                = this.getTestController();
+    /**
+     * Many threads concurrently notify the controller (like the Jetty threads
+     * of the datastore) while the events are drained: no event may be lost.
+     */
+    public void testConcurrentNotify()
+            throws InvalidProfileException, InterruptedException {
+        System.out.println("Test concurrent notify");
 
-        assertTrue(controller.checkLabelsMatch("data.http", "data.http"));
-        assertTrue(controller.checkLabelsMatch("data.http", "data.http.123"));
+        final int threads_count = 8;
+        final int subjects_count = 1000;
 
-        assertTrue(controller.checkLabelsMatch("data.http..*", "data.http.123"));
-        assertTrue(controller.checkLabelsMatch("^data.http", "data.http.123"));
-        assertTrue(controller.checkLabelsMatch("data.*.123", "data.http.123"));
+        ActivationController controller = getTestController();
+        EventTable table = new EventTable();
+        Map<Map, Event> drained = new java.util.HashMap<>();
+
+        Thread[] threads = new Thread[threads_count];
+        for (int t = 0; t < threads_count; t++) {
+            final int thread_id = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < subjects_count; i++) {
+                    Event event = new Event(
+                            "data.http",
+                            new DummySubject("subject " + i),
+                            thread_id,
+                            "");
+                    controller.addEvent(event);
+                    table.add(event);
+                }
+            });
+            threads[t].start();
+
+            // drain while the other threads are still writing
+            Map<Map, Event> events = table.drain().get("data.http");
+            if (events != null) {
+                drained.putAll(events);
+            }
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Map<Map, Event> events = table.drain().get("data.http");
+        if (events != null) {
+            drained.putAll(events);
+        }
+
+        assertEquals(subjects_count, drained.size());
+        assertNull(table.getEvents().get("data.http"));
+        assertEquals(
+                subjects_count,
+                controller.getEvents().get("data.http").size());
     }
 
 
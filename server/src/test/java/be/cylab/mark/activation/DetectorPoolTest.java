@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.activation;
+
+import be.cylab.mark.core.DetectionAgentInterface;
+import be.cylab.mark.core.DetectionAgentProfile;
+import be.cylab.mark.core.InvalidProfileException;
+import be.cylab.mark.detection.Counter;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author tibo
+ */
+public class DetectorPoolTest extends TestCase {
+
+    public void testThreadSafe() throws InvalidProfileException {
+        DetectionAgentProfile profile = getProfile(Counter.class.getName());
+        DetectorPool pool = new DetectorPool(Arrays.asList(profile), 2);
+
+        DetectionAgentInterface agent = pool.acquire(profile);
+        assertTrue(agent instanceof Counter);
+        assertSame(agent, pool.acquire(profile));
+    }
+
+    public void testPool() throws InvalidProfileException {
+        DetectionAgentProfile profile =
+                getProfile(DummyDetector.class.getName());
+        DetectorPool pool = new DetectorPool(Arrays.asList(profile), 1);
+
+        DetectionAgentInterface agent1 = pool.acquire(profile);
+        DetectionAgentInterface agent2 = pool.acquire(profile);
+        assertNotSame(agent1, agent2);
+
+        // only one idle instance is kept
+        pool.release(profile, agent1);
+        pool.release(profile, agent2);
+        assertSame(agent1, pool.acquire(profile));
+        assertNotSame(agent2, pool.acquire(profile));
+    }
+
+    public void testInvalidClass() {
+        DetectionAgentProfile profile = getProfile("be.cylab.mark.NoSuchClass");
+        DetectorPool pool = new DetectorPool(Arrays.asList(profile), 1);
+
+        try {
+            pool.acquire(profile);
+            fail("Should throw InvalidProfileException");
+        } catch (InvalidProfileException ex) {
+            // ok
+        }
+    }
+
+    private DetectionAgentProfile getProfile(final String class_name) {
+        DetectionAgentProfile profile = new DetectionAgentProfile();
+        profile.setLabel("detection.test");
+        profile.setTriggerLabel("data");
+        profile.setClassName(class_name);
+        return profile;
+    }
+}
@@ -0,0 +1,40 @@
+package be.cylab.mark.activation;
+
+import be.cylab.mark.core.BatchDetectionAgentInterface;
+import be.cylab.mark.core.DetectionAgentProfile;
+import be.cylab.mark.core.Event;
+import be.cylab.mark.core.ServerInterface;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dummy detection agent that supports batches, and does not try to read or
+ * write to the datastore.
+ * @author tibo
+ */
+public class DummyBatchDetector implements BatchDetectionAgentInterface {
+
+    @Override
+    public void analyze(
+            final Event[] events,
+            final DetectionAgentProfile profile,
+            final ServerInterface datastore) {
+
+        // a failing subject should not prevent the analysis of the others
+        for (Event event : events) {
+            try {
+                analyze(event, profile, datastore);
+            } catch (Throwable ex) {
+                LoggerFactory.getLogger(DummyBatchDetector.class).error(
+                        "Detector failed for " + event.getSubject(), ex);
+            }
+        }
+    }
+
+    @Override
+    public void analyze(
+            final Event ev,
+            final DetectionAgentProfile profile,
+            final ServerInterface datastore) throws Throwable {
+
+    }
+}
@@ -47,6 +47,11 @@ public class DummyExecutor implements ExecutorInterface {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    @Override
+    public int getBacklog() {
+        return 0;
+    }
+
     @Override
     public Map<String, Object> getStatus() {
         Map<String, Object> map = new HashMap<>();
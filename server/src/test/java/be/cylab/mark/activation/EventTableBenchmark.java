@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.activation;
+
+import be.cylab.mark.DummySubject;
+import be.cylab.mark.core.Event;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measure the throughput of event ingestion in the activation controller
+ * (ActivationController.addEvent delegates to EventTable.add), while the
+ * activation thread keeps draining the table.
+ *
+ * Run with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=be.cylab.mark.activation.EventTableBenchmark
+ * </pre>
+ *
+ * The benchmark is executed with 1, 2, 4, 8 and 16 threads, so we can check
+ * that ingestion scales with the number of (Jetty) threads.
+ *
+ * @author tibo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventTableBenchmark {
+
+    private static final String[] LABELS = new String[]{
+        "data.http", "data.dns", "data.ssh", "detection.http.count"};
+
+    private static final int SUBJECTS = 10000;
+
+    private static final int[] THREADS = new int[]{1, 2, 4, 8, 16};
+
+    private Event[] events;
+    private EventTable table;
+    private Thread drainer;
+
+    /**
+     * Prepare the events that will be inserted.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        table = new EventTable();
+
+        events = new Event[SUBJECTS];
+        for (int i = 0; i < SUBJECTS; i++) {
+            Map<String, String> subject = new DummySubject("subject " + i);
+            events[i] = new Event(LABELS[i % LABELS.length], subject, i, "");
+        }
+
+        // simulate the activation thread, which periodically takes the
+        // events from the table
+        drainer = new Thread(() -> {
+            while (!Thread.interrupted()) {
+                table.drain();
+            }
+        });
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * Insert a random event.
+     */
+    @Benchmark
+    public void add() {
+        table.add(
+                events[ThreadLocalRandom.current().nextInt(SUBJECTS)]);
+    }
+
+    /**
+     *
+     * @param args
+     * @throws Exception if the benchmark fails
+     */
+    public static void main(final String[] args) throws Exception {
+        for (int threads : THREADS) {
+            Options opt = new OptionsBuilder()
+                    .include(EventTableBenchmark.class.getName())
+                    .threads(threads)
+                    .build();
+            new Runner(opt).run();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.activation;
+
+import be.cylab.mark.DummySubject;
+import be.cylab.mark.core.Event;
+import java.util.Map;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author tibo
+ */
+public class EventTableTest extends TestCase {
+
+    /**
+     * Drain keeps the most recent event of each (label, subject), and
+     * removes the labels that are no longer received.
+     */
+    public void testDrain() {
+        EventTable table = new EventTable();
+        table.add(new Event("a", new DummySubject("1"), 1000, "1"));
+        table.add(new Event("a", new DummySubject("1"), 2000, "2"));
+        table.add(new Event("b", new DummySubject("2"), 1000, "3"));
+
+        Map<String, Map<Map, Event>> events = table.drain();
+        assertEquals(2, events.size());
+        assertEquals(
+                "2", events.get("a").get(new DummySubject("1")).getId());
+        assertTrue(table.getEvents().isEmpty());
+
+        table.add(new Event("a", new DummySubject("1"), 3000, "4"));
+        assertEquals(1, table.getEvents().size());
+        assertEquals(1, table.drain().size());
+        assertTrue(table.getEvents().isEmpty());
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.activation;
+
+import be.cylab.mark.server.Config;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compare ThreadsExecutor and VirtualThreadsExecutor on I/O heavy jobs: each
+ * job simulates a detector that performs a few queries to the datastore, and
+ * spends most of its time waiting for the answers.
+ *
+ * Each invocation submits a burst of JOBS jobs and waits until they are all
+ * executed.
+ *
+ * Run with:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=be.cylab.mark.activation.ExecutorBenchmark
+ * </pre>
+ *
+ * @author tibo
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecutorBenchmark {
+
+    private static final int JOBS = 1000;
+
+    /**
+     * Number of queries to the datastore performed by each job.
+     */
+    private static final int QUERIES = 3;
+
+    /**
+     * Simulated duration of a single query (ms).
+     */
+    private static final long QUERY_TIME = 5;
+
+    @Param({"ThreadsExecutor", "VirtualThreadsExecutor"})
+    private String executor_class;
+
+    private ExecutorInterface executor;
+
+    /**
+     * Create the executor.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        if (executor_class.equals("ThreadsExecutor")) {
+            executor = new ThreadsExecutor();
+        } else {
+            executor = new VirtualThreadsExecutor(new Config());
+        }
+    }
+
+    /**
+     * Stop the executor.
+     * @throws InterruptedException if interrupted while stopping
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        executor.shutdown();
+    }
+
+    /**
+     * Submit a burst of I/O heavy jobs, and wait until they are executed.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Benchmark
+    public void burst() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(JOBS);
+        for (int i = 0; i < JOBS; i++) {
+            executor.submit(() -> {
+                try {
+                    for (int q = 0; q < QUERIES; q++) {
+                        Thread.sleep(QUERY_TIME);
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+    }
+
+    /**
+     *
+     * @param args
+     * @throws Exception if the benchmark fails
+     */
+    public static void main(final String[] args) throws Exception {
+        Options opt = new OptionsBuilder()
+                .include(ExecutorBenchmark.class.getName())
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -64,4 +64,125 @@ public class ExecutorTest extends TestCase {
 
     }
 
+    /**
+     * In event mode, the detectors are triggered shortly after the event is
+     * received, and events for the same subject are coalesced.
+     */
+    public void testEventActivation()
+            throws InvalidProfileException, InterruptedException {
+        Config config = Config.getTestConfig();
+        config.setActivationMode(Config.ACTIVATION_MODE_EVENT);
+        config.setActivationDelay(50);
+        ExecutorInterface executor = new DummyExecutor();
+        ActivationController controller =
+                new ActivationController(config, executor);
+
+        DetectionAgentProfile profile = new DetectionAgentProfile();
+        profile.setTriggerLabel("data.dummy");
+        profile.setClassName(
+                be.cylab.mark.detection.DummyDetector.class.getCanonicalName());
+        controller.setAgentProfile(profile);
+        controller.start();
+
+        for (int i = 0; i < 10; i++) {
+            RawData data = new RawData();
+            data.setLabel("data.dummy");
+            data.setSubject(new DummySubject("dummy subject"));
+            data.setTime(123456 + i);
+            controller.notifyRawData(data);
+        }
+        Thread.sleep(500);
+        assertEquals(1, executor.getStatus().get("executed"));
+
+        controller.interrupt();
+    }
+
+    /**
+     * As long as the job for a (profile, subject) did not start, new
+     * triggers are merged into this job.
+     */
+    public void testCoalesce()
+            throws InvalidProfileException, InterruptedException {
+        Config config = Config.getTestConfig();
+        config.setActivationMode(Config.ACTIVATION_MODE_EVENT);
+        config.setActivationDelay(10);
+        DummyExecutor executor = new DummyExecutor();
+        ActivationController controller =
+                new ActivationController(config, executor);
+
+        DetectionAgentProfile profile = new DetectionAgentProfile();
+        profile.setTriggerLabel("data.dummy");
+        profile.setClassName(
+                be.cylab.mark.detection.DummyDetector.class.getCanonicalName());
+        controller.setAgentProfile(profile);
+        controller.start();
+
+        for (int i = 0; i < 5; i++) {
+            RawData data = new RawData();
+            data.setLabel("data.dummy");
+            data.setSubject(new DummySubject("dummy subject"));
+            data.setTime(123456 + i);
+            controller.notifyRawData(data);
+            Thread.sleep(200);
+        }
+
+        // the dummy executor does not run the jobs
+        assertEquals(1, executor.jobs.size());
+        assertEquals(4L,
+                controller.getExecutorStatus().get("executor.jobs.coalesced"));
+        DetectionAgentContainer job =
+                (DetectionAgentContainer) executor.jobs.get(0);
+        assertEquals(123460, job.getEvents()[0].getTimestamp());
+
+        // once the job has started, a new job is submitted
+        job.run();
+        RawData data = new RawData();
+        data.setLabel("data.dummy");
+        data.setSubject(new DummySubject("dummy subject"));
+        data.setTime(123470);
+        controller.notifyRawData(data);
+        Thread.sleep(200);
+        assertEquals(2, executor.jobs.size());
+
+        controller.interrupt();
+    }
+
+    /**
+     * Detectors that support batches receive the events for several
+     * subjects in a single job.
+     */
+    public void testBatch()
+            throws InvalidProfileException, InterruptedException {
+        Config config = Config.getTestConfig();
+        config.setActivationMode(Config.ACTIVATION_MODE_EVENT);
+        config.setActivationDelay(100);
+        config.setBatchSize(3);
+        DummyExecutor executor = new DummyExecutor();
+        ActivationController controller =
+                new ActivationController(config, executor);
+
+        DetectionAgentProfile profile = new DetectionAgentProfile();
+        profile.setTriggerLabel("data.dummy");
+        profile.setClassName(DummyBatchDetector.class.getCanonicalName());
+        controller.setAgentProfile(profile);
+        controller.start();
+
+        for (int i = 0; i < 5; i++) {
+            RawData data = new RawData();
+            data.setLabel("data.dummy");
+            data.setSubject(new DummySubject("subject " + i));
+            data.setTime(123456);
+            controller.notifyRawData(data);
+        }
+        Thread.sleep(500);
+
+        assertEquals(2, executor.jobs.size());
+        int count = 0;
+        for (Runnable job : executor.jobs) {
+            count += ((DetectionAgentContainer) job).getEvents().length;
+        }
+        assertEquals(5, count);
+
+        controller.interrupt();
+    }
 }
@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.activation;
+
+import java.util.Map;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author tibo
+ */
+public class LatencyHistogramTest extends TestCase {
+
+    public void testBuckets() {
+        for (long value = 0; value < 100000; value++) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue(value <= LatencyHistogram.upperBound(bucket));
+            if (bucket > 0) {
+                assertTrue(value > LatencyHistogram.upperBound(bucket - 1));
+            }
+        }
+
+        LatencyHistogram.upperBound(LatencyHistogram.bucket(Long.MAX_VALUE));
+    }
+
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(99));
+
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500500, histogram.getSum());
+        assertEquals(500, histogram.getPercentile(50), 500 * 0.125);
+        assertEquals(950, histogram.getPercentile(95), 950 * 0.125);
+        assertEquals(990, histogram.getPercentile(99), 990 * 0.125);
+        assertEquals(1000, histogram.getPercentile(100));
+    }
+
+    /**
+     * Job statistics report the last complete interval.
+     *
+     * @throws InterruptedException if interrupted while sleeping
+     */
+    public void testJobStatistics() throws InterruptedException {
+        JobStatistics statistics = new JobStatistics(200);
+        statistics.record("detection.test", 10, 100);
+        statistics.record("detection.test", 20, 200);
+
+        // the interval is not complete yet
+        assertTrue(statistics.getStatus().isEmpty());
+
+        Thread.sleep(250);
+        Map<String, Object> status = statistics.getStatus();
+        assertEquals(2L, status.get("executor.profile.detection.test.jobs"));
+        assertEquals(
+                200L,
+                status.get("executor.profile.detection.test.execution.max"));
+        assertEquals(
+                30L, status.get("executor.profile.detection.test.wait.total"));
+
+        // old jobs are not reported anymore
+        Thread.sleep(500);
+        assertTrue(statistics.getStatus().isEmpty());
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.activation;
+
+import be.cylab.mark.core.Batch;
+import be.cylab.mark.core.DetectionAgentProfile;
+import be.cylab.mark.core.Evidence;
+import be.cylab.mark.core.RawData;
+import be.cylab.mark.detection.DummyClient;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author tibo
+ */
+public class LocalDatastoreTest extends TestCase {
+
+    /**
+     * The ClientWrapper must stamp the evidence with the profile, and record
+     * the requests, like with the HTTP client.
+     *
+     * @throws Throwable
+     */
+    public void testRequestCapture() throws Throwable {
+        DummyClient handler = new DummyClient();
+        LocalDatastore local = new LocalDatastore(handler, handler.getURL());
+
+        DetectionAgentProfile profile = new DetectionAgentProfile();
+        profile.setLabel("detection.local");
+        ClientWrapper wrapper = new ClientWrapper(local, profile, true);
+
+        Map<String, String> subject = new HashMap<>();
+        subject.put("name", "test");
+        wrapper.findRawData("data", subject, 0, 100);
+
+        Evidence evidence = new Evidence();
+        evidence.setSubject(subject);
+        wrapper.addEvidence(evidence);
+
+        assertEquals(1, handler.getEvidences().size());
+        Evidence saved = handler.getEvidences().get(0);
+        assertEquals("detection.local", saved.getLabel());
+        assertSame(profile, saved.getProfile());
+        assertEquals(1, saved.getRequests().size());
+        assertTrue(saved.getRequests().get(0).contains("\"findRawData\""));
+
+        // requests are reset after each evidence
+        wrapper.addEvidence(new Evidence());
+        assertTrue(handler.getEvidences().get(1).getRequests().isEmpty());
+    }
+
+    /**
+     * The pages of a query must be recorded as a single request, without
+     * the paging parameters.
+     *
+     * @throws Throwable
+     */
+    public void testPagedRequests() throws Throwable {
+        DummyClient handler = new DummyClient();
+        LocalDatastore local = new LocalDatastore(handler, handler.getURL());
+        DetectionAgentProfile profile = new DetectionAgentProfile();
+        profile.setLabel("detection.local");
+        ClientWrapper wrapper = new ClientWrapper(local, profile, true);
+
+        Map<String, String> subject = new HashMap<>();
+        subject.put("name", "test");
+        String[] fields = new String[]{"data"};
+        wrapper.findRawData("data", subject, 0, 100, null, 10, fields);
+        wrapper.findRawData("data", subject, 0, 100, "page2", 10, fields);
+
+        wrapper.addEvidence(new Evidence());
+        List<String> requests = handler.getEvidences().get(0).getRequests();
+        assertEquals(1, requests.size());
+        assertTrue(requests.get(0).contains(
+                "\"params\":[\"data\",{\"name\":\"test\"},0,100,[\"data\"]]"));
+    }
+
+    /**
+     * Requests of a batch must also be recorded.
+     *
+     * @throws Throwable
+     */
+    public void testBatch() throws Throwable {
+        DummyClient handler = new DummyClient();
+        LocalDatastore local = new LocalDatastore(handler, handler.getURL());
+        DetectionAgentProfile profile = new DetectionAgentProfile();
+        profile.setLabel("detection.local");
+        ClientWrapper wrapper = new ClientWrapper(local, profile, true);
+
+        Map<String, String> subject = new HashMap<>();
+        subject.put("name", "test");
+        Batch batch = wrapper.batch();
+        CompletableFuture<RawData[]> data =
+                batch.findRawData("data", subject, 0, 100);
+        batch.findEvidence("detection", subject);
+        batch.execute();
+        assertTrue(data.get().length > 0);
+
+        wrapper.addEvidence(new Evidence());
+        List<String> requests = handler.getEvidences().get(0).getRequests();
+        assertEquals(2, requests.size());
+        assertTrue(requests.get(0).contains("\"findRawData\""));
+        assertTrue(requests.get(1).contains("\"findEvidence\""));
+    }
+}
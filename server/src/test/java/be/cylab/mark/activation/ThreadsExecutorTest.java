@@ -0,0 +1,153 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.activation;
+
+import be.cylab.mark.server.Config;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author tibo
+ */
+public class ThreadsExecutorTest extends TestCase {
+
+    private static final int QUEUE_SIZE = 2;
+
+    public void testDropNewest() throws InterruptedException {
+        List<String> executed = new ArrayList<>();
+        ThreadsExecutor executor = getBusyExecutor(
+                Config.OVERLOAD_DROP_NEWEST, executed);
+
+        assertEquals(1L, executor.getStatus().get("executor.queue.dropped"));
+        assertEquals(QUEUE_SIZE, executor.getBacklog());
+        release(executor, executed, 2);
+        assertEquals("[0, 1]", executed.toString());
+    }
+
+    public void testDropOldest() throws InterruptedException {
+        List<String> executed = new ArrayList<>();
+        ThreadsExecutor executor = getBusyExecutor(
+                Config.OVERLOAD_DROP_OLDEST, executed);
+
+        assertEquals(1L, executor.getStatus().get("executor.queue.dropped"));
+        release(executor, executed, 2);
+        assertEquals("[1, 2]", executed.toString());
+    }
+
+    public void testCallerRuns() throws InterruptedException {
+        List<String> executed = new ArrayList<>();
+        ThreadsExecutor executor = getBusyExecutor(
+                Config.OVERLOAD_CALLER_RUNS, executed);
+
+        assertEquals(0L, executor.getStatus().get("executor.queue.dropped"));
+        assertEquals(1L, executor.getStatus().get("executor.queue.callerruns"));
+
+        // job 2 was executed by the caller
+        assertEquals("[2]", executed.toString());
+        release(executor, executed, 3);
+        assertEquals("[2, 0, 1]", executed.toString());
+    }
+
+    /**
+     * Jobs that are still queued after the timeout are discarded.
+     *
+     * @throws InterruptedException
+     */
+    public void testShutdown() throws InterruptedException {
+        List<String> executed = new ArrayList<>();
+        ThreadsExecutor executor = getBusyExecutor(
+                Config.OVERLOAD_DROP_NEWEST, executed);
+
+        assertFalse(executor.shutdown(100));
+        assertEquals(0, executor.getBacklog());
+        assertEquals(3L, executor.getStatus().get("executor.queue.dropped"));
+        busy.countDown();
+        synchronized (executed) {
+            assertTrue(executed.isEmpty());
+        }
+    }
+
+    private CountDownLatch busy;
+
+    /**
+     * Create an executor where all threads are busy, then submit
+     * QUEUE_SIZE + 1 jobs (which add their number to executed).
+     */
+    private ThreadsExecutor getBusyExecutor(
+            final String policy, final List<String> executed)
+            throws InterruptedException {
+
+        Config config = Config.getTestConfig();
+        config.setExecutorQueueSize(QUEUE_SIZE);
+        config.setExecutorOverloadPolicy(policy);
+        ThreadsExecutor executor = new ThreadsExecutor(config);
+
+        int threads = (int) executor.getStatus().get("executor.parallelism");
+        busy = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.submit(() -> {
+                started.countDown();
+                try {
+                    busy.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        started.await();
+
+        for (int i = 0; i < QUEUE_SIZE + 1; i++) {
+            final String job = "" + i;
+            executor.submit(() -> {
+                synchronized (executed) {
+                    executed.add(job);
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Release the busy threads, and wait until expected jobs are executed.
+     */
+    private void release(
+            final ThreadsExecutor executor, final List<String> executed,
+            final int expected)
+            throws InterruptedException {
+        busy.countDown();
+        for (int i = 0; i < 100; i++) {
+            synchronized (executed) {
+                if (executed.size() >= expected) {
+                    break;
+                }
+            }
+            Thread.sleep(10);
+        }
+        executor.shutdown();
+    }
+}
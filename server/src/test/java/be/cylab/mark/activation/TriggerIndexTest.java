@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.activation;
+
+import be.cylab.mark.DummySubject;
+import be.cylab.mark.core.DetectionAgentProfile;
+import be.cylab.mark.core.RawData;
+import be.cylab.mark.server.Config;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author tibo
+ */
+public class TriggerIndexTest extends TestCase {
+
+    public void testMatch() {
+        DetectionAgentProfile http = getProfile("http", "data.http");
+        DetectionAgentProfile all = getProfile("all", "^data");
+        DetectionAgentProfile count = getProfile("count", "data.*.123");
+
+        TriggerIndex index = new TriggerIndex(Arrays.asList(http, all, count));
+        assertEquals(3, index.size());
+
+        List<DetectionAgentProfile> matching = index.match("data.http.123");
+        assertEquals(3, matching.size());
+
+        matching = index.match("data.dns");
+        assertEquals(1, matching.size());
+        assertSame(all, matching.get(0));
+
+        assertTrue(index.match("evidence.http").isEmpty());
+
+        // second lookup comes from the cache
+        assertSame(index.match("data.dns"), index.match("data.dns"));
+    }
+
+    /**
+     * Trigger labels are regular expressions, that match anywhere in the
+     * label of the event.
+     */
+    public void testLabelsMatching() {
+        assertTrue(labelsMatch("data.http", "data.http"));
+        assertTrue(labelsMatch("data.http", "data.http.123"));
+
+        assertTrue(labelsMatch("data.http..*", "data.http.123"));
+        assertTrue(labelsMatch("^data.http", "data.http.123"));
+        assertTrue(labelsMatch("data.*.123", "data.http.123"));
+        assertFalse(labelsMatch("^http", "data.http.123"));
+    }
+
+    private boolean labelsMatch(
+            final String trigger_label, final String event_label) {
+        TriggerIndex index = new TriggerIndex(Arrays.asList(
+                getProfile("test", trigger_label)));
+        return index.match(event_label).size() == 1;
+    }
+
+    public void testInvalidTriggerLabel() {
+        DetectionAgentProfile invalid = getProfile("invalid", "data.(http");
+        DetectionAgentProfile http = getProfile("http", "data.http");
+
+        TriggerIndex index = new TriggerIndex(Arrays.asList(invalid, http));
+        assertEquals(1, index.size());
+        assertEquals(1, index.match("data.http").size());
+    }
+
+    /**
+     * When a profile is added, the index (and its cache) must be rebuilt.
+     */
+    public void testSetAgentProfile() throws InterruptedException {
+        DummyExecutor executor = new DummyExecutor();
+        ActivationController controller = new ActivationController(
+                Config.getTestConfig(), executor);
+        DetectionAgentProfile http = getProfile("http", "data.http");
+        // next events for the same subject will be skipped by this profile
+        http.setTriggerInterval(3600);
+        controller.setAgentProfile(http);
+        controller.start();
+
+        controller.notifyRawData(getData());
+        Thread.sleep(2000);
+        assertEquals(1, executor.jobs.size());
+
+        // the label "data.http" is now in the cache of the index
+        controller.setAgentProfile(getProfile("other", "data"));
+        controller.notifyRawData(getData());
+        Thread.sleep(2000);
+        assertEquals(2, executor.jobs.size());
+
+        controller.interrupt();
+    }
+
+    private RawData getData() {
+        RawData data = new RawData();
+        data.setLabel("data.http");
+        data.setSubject(new DummySubject("dummy subject"));
+        data.setTime(System.currentTimeMillis());
+        return data;
+    }
+
+    private DetectionAgentProfile getProfile(
+            final String label, final String trigger_label) {
+
+        DetectionAgentProfile profile = new DetectionAgentProfile();
+        profile.setLabel(label);
+        profile.setTriggerLabel(trigger_label);
+        profile.setClassName(DummyDetector.class.getCanonicalName());
+        return profile;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.activation;
+
+import be.cylab.mark.DummySubject;
+import java.util.Map;
+import junit.framework.TestCase;
+
+/**
+ *
+ * @author tibo
+ */
+public class TriggerTimesTest extends TestCase {
+
+    private static final String CLASS_NAME = "be.cylab.mark.Detector";
+
+    public void testTriggerInterval() {
+        TriggerTimes times = new TriggerTimes(1024);
+        times.setTimeToLive(1000);
+        Map subject = new DummySubject("1.2.3.4");
+
+        assertTrue(times.canTrigger(CLASS_NAME, subject, 1000, 500));
+        times.triggered(CLASS_NAME, subject, 1000);
+        assertEquals(1, times.size());
+
+        // equal subject, but different instance
+        assertFalse(times.canTrigger(
+                CLASS_NAME, new DummySubject("1.2.3.4"), 1500, 500));
+        assertTrue(times.canTrigger(CLASS_NAME, subject, 1501, 500));
+        assertTrue(times.canTrigger(CLASS_NAME, subject, 1200, 100));
+        assertTrue(times.canTrigger("other", subject, 1200, 500));
+
+        // trigger again => interval restarts
+        times.triggered(CLASS_NAME, subject, 1600);
+        assertEquals(1, times.size());
+        assertFalse(times.canTrigger(CLASS_NAME, subject, 2000, 500));
+
+        times.sweep(3000);
+        assertEquals(0, times.size());
+        assertTrue(times.canTrigger(CLASS_NAME, subject, 2000, 500));
+    }
+
+    public void testBounded() {
+        TriggerTimes times = new TriggerTimes(1000);
+        times.setTimeToLive(60000);
+        assertEquals(1024, times.capacity());
+
+        for (int i = 0; i < 10000; i++) {
+            times.triggered(CLASS_NAME, new DummySubject("" + i), 1000 + i);
+        }
+
+        assertTrue(times.size() <= times.capacity());
+        assertTrue(times.evictions() >= 10000 - times.capacity());
+
+        // the most recent subject is still tracked
+        assertFalse(times.canTrigger(
+                CLASS_NAME, new DummySubject("9999"), 20000, 60000));
+    }
+
+    public void testExpiredSlotsAreReused() {
+        TriggerTimes times = new TriggerTimes(16);
+        times.setTimeToLive(10);
+
+        for (int i = 0; i < 1000; i++) {
+            times.triggered(CLASS_NAME, new DummySubject("" + i), 1000 * i);
+        }
+
+        assertEquals(0, times.evictions());
+    }
+}
@@ -48,6 +48,16 @@ public class DummyActivationContoller implements ActivationControllerInterface {
 
     }
 
+    @Override
+    public void notifyEvidence(Evidence[] evidences) {
+
+    }
+
+    @Override
+    public void notifyRawData(RawData[] data) {
+
+    }
+
     public ClusterMetrics getIgniteMetrics() {
         throw new UnsupportedOperationException("Not supported yet.");
     }
@@ -57,6 +67,11 @@ public class DummyActivationContoller implements ActivationControllerInterface {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    @Override
+    public Map getStatus() {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
     @Override
     public Map getExecutorStatus() {
         throw new UnsupportedOperationException("Not supported yet.");
@@ -0,0 +1,225 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.datastore;
+
+import be.cylab.mark.client.Client;
+import be.cylab.mark.client.WireFormat;
+import be.cylab.mark.core.Batch;
+import be.cylab.mark.core.Evidence;
+import be.cylab.mark.core.RawData;
+import be.cylab.mark.core.RawDataCursor;
+import be.cylab.mark.detection.DummyClient;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import junit.framework.TestCase;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+
+/**
+ *
+ * @author tibo
+ */
+public class JettyHandlerTest extends TestCase {
+
+    /**
+     * Single and bulk versions of addRawData and addEvidence must be
+     * dispatched to the correct method.
+     *
+     * @throws Exception
+     * @throws Throwable
+     */
+    public void testBulk() throws Exception, Throwable {
+        DummyClient handler = new DummyClient();
+        Server jetty = startJetty(handler);
+
+        try {
+            Client client = new Client(getURL(jetty));
+            client.addRawData(new RawData());
+            client.addRawData(new RawData[]{new RawData(), new RawData()});
+            assertEquals(3, handler.getData().size());
+
+            client.addEvidence(new Evidence());
+            client.addEvidence(new Evidence[]{new Evidence(), new Evidence()});
+            assertEquals(3, handler.getEvidences().size());
+
+        } finally {
+            jetty.stop();
+        }
+    }
+
+    /**
+     * Queries of a batch are sent in a single request, and each future gets
+     * its own result (or error).
+     *
+     * @throws Exception
+     * @throws Throwable
+     */
+    public void testBatch() throws Exception, Throwable {
+        Server jetty = startJetty(new DummyClient());
+
+        try {
+            Map<String, String> subject = new HashMap<>();
+            subject.put("name", "test");
+
+            Batch batch = new Client(getURL(jetty)).batch();
+            CompletableFuture<RawData[]> data =
+                    batch.findRawData("data", subject, 0, 0);
+            CompletableFuture<Evidence[]> evidences =
+                    batch.findEvidence("detection", subject);
+            assertFalse(data.isDone());
+
+            batch.execute();
+            assertEquals("data", data.get()[0].getLabel());
+
+            // DummyClient does not support findEvidence : the error is
+            // reported by the corresponding future only
+            try {
+                evidences.get();
+                fail("findEvidence should have failed");
+            } catch (ExecutionException ex) {
+                assertNotNull(ex.getCause());
+            }
+
+        } finally {
+            jetty.stop();
+        }
+    }
+
+    /**
+     * Several asynchronous requests can be in flight at the same time.
+     *
+     * @throws Exception
+     * @throws Throwable
+     */
+    public void testAsync() throws Exception, Throwable {
+        DummyClient handler = new DummyClient();
+        Server jetty = startJetty(handler);
+
+        try {
+            Map<String, String> subject = new HashMap<>();
+            subject.put("name", "test");
+
+            Client client = new Client(getURL(jetty), WireFormat.SMILE);
+            CompletableFuture<RawData[]> data =
+                    client.findRawDataAsync("data", subject, 0, 0);
+            CompletableFuture<Void> added =
+                    client.addRawDataAsync(new RawData());
+
+            assertEquals("data", data.get()[0].getLabel());
+            added.get();
+            assertEquals(1, handler.getData().size());
+
+        } finally {
+            jetty.stop();
+        }
+    }
+
+    /**
+     * The server must answer in the format used by the client.
+     *
+     * @throws Exception
+     * @throws Throwable
+     */
+    public void testWireFormats() throws Exception, Throwable {
+        Server jetty = startJetty(new DummyClient());
+
+        try {
+            URL url = getURL(jetty);
+            Map<String, String> subject = new HashMap<>();
+            subject.put("name", "test");
+
+            RawData[] expected = new DummyClient().findRawData(
+                    "data", subject, 0, 0);
+
+            for (String format : new String[]{
+                    WireFormat.JSON, WireFormat.SMILE, WireFormat.CBOR}) {
+
+                Client client = new Client(url, format);
+                assertEquals("test", client.test());
+
+                RawData[] data = client.findRawData("data", subject, 0, 0);
+                assertEquals(expected.length, data.length);
+                assertEquals("data", data[0].getLabel());
+                assertEquals(subject, data[0].getSubject());
+                assertEquals(expected[0].getData(), data[0].getData());
+            }
+        } finally {
+            jetty.stop();
+        }
+    }
+
+    /**
+     * countRawData and the paged (projected) variant of findRawData must be
+     * dispatched over HTTP, and a cursor must visit each record once.
+     *
+     * @throws Exception
+     * @throws Throwable
+     */
+    public void testCountAndCursor() throws Exception, Throwable {
+        Server jetty = startJetty(new DummyClient());
+
+        try {
+            Map<String, String> subject = new HashMap<>();
+            subject.put("name", "test");
+
+            Client client = new Client(getURL(jetty));
+            long count = client.countRawData(
+                    "data", subject, 0, Long.MAX_VALUE);
+
+            RawDataCursor cursor = new RawDataCursor(
+                    client, "data", subject, 0, Long.MAX_VALUE,
+                    new String[]{"time"});
+            long visited = 0;
+            while (cursor.hasNext()) {
+                assertNotNull(cursor.next().getId());
+                visited++;
+            }
+            assertEquals(count, visited);
+
+        } finally {
+            jetty.stop();
+        }
+    }
+
+    private Server startJetty(final Object handler) throws Exception {
+        Server jetty = new Server();
+        ServerConnector connector = new ServerConnector(jetty);
+        connector.setHost("127.0.0.1");
+        connector.setPort(0);
+        jetty.addConnector(connector);
+        jetty.setHandler(new JettyHandler(handler));
+        jetty.start();
+        return jetty;
+    }
+
+    private URL getURL(final Server jetty) throws MalformedURLException {
+        ServerConnector connector =
+                (ServerConnector) jetty.getConnectors()[0];
+        return new URL("http://127.0.0.1:" + connector.getLocalPort());
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.datastore;
+
+import be.cylab.mark.core.Evidence;
+import be.cylab.mark.core.RawData;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+/**
+ *
+ * @author tibo
+ */
+public class MongoParserTest extends TestCase {
+
+    /**
+     * The subject key does not depend on the order of the fields of the
+     * subject.
+     */
+    public void testSubjectKey() {
+        MongoParser parser = new MongoParser();
+
+        Map<String, String> subject = new LinkedHashMap<>();
+        subject.put("client", "1.2.3.4");
+        subject.put("server", "example.com");
+
+        Map<String, String> reversed = new LinkedHashMap<>();
+        reversed.put("server", "example.com");
+        reversed.put("client", "1.2.3.4");
+
+        Map<String, String> other = new HashMap<>();
+        other.put("client", "1.2.3.4");
+        other.put("server", "example.org");
+
+        assertEquals(parser.subjectKey(subject), parser.subjectKey(reversed));
+
+        // hex encoded MD5 of the canonical form, so keys that are already
+        // stored remain valid
+        assertEquals(
+                "d25be7941f7c1004d8513d48f58e7dce",
+                parser.subjectKey(subject));
+        assertFalse(
+                parser.subjectKey(subject).equals(parser.subjectKey(other)));
+
+        Evidence evidence = new Evidence();
+        evidence.setSubject(subject);
+        Document doc = parser.convert(evidence);
+        assertEquals(
+                parser.subjectKey(subject),
+                doc.getString(MongoParser.SUBJECT_KEY));
+    }
+
+    /**
+     * Raw data stores the key of each combination of the fields of the
+     * subject, so a part of the subject can be queried.
+     */
+    public void testSubjectKeys() {
+        MongoParser parser = new MongoParser();
+
+        Map<String, String> subject = new HashMap<>();
+        subject.put("client", "1.2.3.4");
+        subject.put("server", "example.com");
+        Map<String, String> client = new HashMap<>();
+        client.put("client", "1.2.3.4");
+
+        RawData data = new RawData();
+        data.setSubject(subject);
+        List<String> keys = parser.convert(data).getList(
+                MongoParser.SUBJECT_KEYS, String.class);
+        assertEquals(3, keys.size());
+        assertTrue(keys.contains(parser.subjectKey(subject)));
+        assertTrue(keys.contains(parser.subjectKey(client)));
+
+        // no key for large subjects, which still match the filter
+        Map<String, String> large = new HashMap<>();
+        for (int i = 0; i <= MongoParser.MAX_SUBJECT_KEYS_FIELDS; i++) {
+            large.put("field" + i, "value");
+        }
+        data.setSubject(large);
+        assertFalse(parser.convert(data).containsKey(MongoParser.SUBJECT_KEYS));
+        List<?> filter = (List<?>) parser.subjectKeysFilter(client).get("$in");
+        assertTrue(filter.contains(null));
+        assertNull(parser.subjectKeysFilter(new HashMap<>()));
+    }
+
+    /**
+     * Records are added to the bucket of their label, subject and time.
+     */
+    public void testBucket() {
+        MongoParser parser = new MongoParser();
+
+        Map<String, String> subject = new HashMap<>();
+        subject.put("client", "1.2.3.4");
+        RawData data = new RawData();
+        data.setLabel("data");
+        data.setSubject(subject);
+        data.setTime(1234);
+        data.setData("record");
+
+        Document doc = parser.expire(parser.convert(data), 1000);
+        assertEquals(2234, doc.getDate(MongoParser.EXPIRE_AT).getTime());
+        doc.append("_id", new ObjectId());
+
+        Document filter = parser.bucketFilter(doc, 1000, 10);
+        assertEquals("data", filter.getString(MongoParser.LABEL));
+        assertEquals(1000L, (long) filter.getLong(MongoParser.BUCKET));
+        assertEquals(
+                parser.subjectKey(subject),
+                filter.getString(MongoParser.SUBJECT_KEY));
+
+        Document update = parser.bucketUpdate(doc);
+        Document record = update.get("$push", Document.class)
+                .get(MongoParser.RECORDS, Document.class);
+        assertEquals(doc.getObjectId("_id"), record.getObjectId("_id"));
+        assertEquals("record", record.getString(MongoParser.DATA));
+        assertEquals(1234L, (long) update.get("$min", Document.class)
+                .getLong(MongoParser.MIN_TIME));
+        assertEquals(doc.getDate(MongoParser.EXPIRE_AT),
+                update.get("$max", Document.class)
+                        .getDate(MongoParser.EXPIRE_AT));
+    }
+}
@@ -27,7 +27,10 @@ package be.cylab.mark.datastore;
 import be.cylab.mark.DummySubject;
 import be.cylab.mark.core.DetectionAgentProfile;
 import be.cylab.mark.core.Evidence;
+import be.cylab.mark.core.EvidenceAggregate;
+import be.cylab.mark.core.EvidencePage;
 import be.cylab.mark.core.RawData;
+import be.cylab.mark.core.RawDataCursor;
 import com.mongodb.MongoClient;
 import com.mongodb.client.MongoDatabase;
 import junit.framework.TestCase;
@@ -36,6 +39,8 @@ import be.cylab.mark.server.DataSourcesController;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import org.bson.Document;
 
 /**
@@ -61,6 +66,112 @@ public class RequestHandlerTest extends TestCase {
         assertNotSame("", evidences[0].getId());
     }
 
+    /**
+     * Only the most recent evidence of each subject is returned, even if
+     * evidences are not inserted in chronological order.
+     */
+    public void testLatestEvidences() throws Throwable {
+        RequestHandler rq = this.getRequestHandler();
+        DummySubject subject1 = new DummySubject("test1");
+        DummySubject subject2 = new DummySubject("test2");
+
+        long[] times = new long[]{200, 300, 100};
+        for (long time : times) {
+            for (DummySubject subject : new DummySubject[]{
+                    subject1, subject2}) {
+                Evidence ev = new Evidence();
+                ev.setLabel("test.latest");
+                ev.setScore(time / 1000.0);
+                ev.setSubject(subject);
+                ev.setTime(time);
+                rq.addEvidence(ev);
+            }
+        }
+
+        Evidence[] evidences = rq.findEvidence("test.latest");
+        assertEquals(2, evidences.length);
+        assertEquals(300, evidences[0].getTime());
+        assertEquals(300, evidences[1].getTime());
+
+        Evidence other = new Evidence();
+        other.setLabel("test.other");
+        other.setSubject(subject1);
+        other.setTime(50);
+        rq.addEvidence(new Evidence[]{other});
+
+        evidences = rq.findLastEvidences("test", subject1);
+        assertEquals(2, evidences.length);
+    }
+
+    /**
+     * The collection of latest evidences is built from the existing
+     * evidences, and marked as complete.
+     */
+    public void testBuildLatestEvidences() throws Throwable {
+        RequestHandler rq = this.getRequestHandler();
+        for (long time : new long[]{200, 300, 100}) {
+            Evidence ev = new Evidence();
+            ev.setLabel("test.build");
+            ev.setSubject(new DummySubject("test"));
+            ev.setTime(time);
+            rq.addEvidence(ev);
+        }
+
+        // database created by a previous version
+        MongoClient mongo = new MongoClient(getMongoHost());
+        mongo.getDatabase("MARK").getCollection("EVIDENCE_LATEST").drop();
+        rq.createUniqueIndexes();
+        assertEquals(0, rq.findEvidence("test.build").length);
+
+        rq.buildLatestEvidences();
+        assertTrue(rq.isLatestEvidencesReady());
+        Evidence[] evidences = rq.findEvidence("test.build");
+        assertEquals(1, evidences.length);
+        assertEquals(300, evidences[0].getTime());
+
+        // the marker is stored in the database
+        RequestHandler other = new RequestHandler(
+                mongo.getDatabase("MARK"),
+                new DummyActivationContoller(),
+                new DataSourcesController(null),
+                new MongoParser());
+        other.initLatestEvidences();
+        assertTrue(other.isLatestEvidencesReady());
+    }
+
+    /**
+     * Pages contain each subject once, sorted by decreasing score.
+     */
+    public void testFindEvidencePage() throws Throwable {
+        RequestHandler rq = this.getRequestHandler();
+
+        int subjects = 250;
+        for (int i = 0; i < subjects; i++) {
+            Evidence ev = new Evidence();
+            ev.setLabel("test.page");
+            ev.setScore(i % 10);
+            ev.setSubject(new DummySubject("subject" + i));
+            ev.setTime(123456);
+            rq.addEvidence(ev);
+        }
+
+        int count = 0;
+        double previous = Double.MAX_VALUE;
+        String token = null;
+        do {
+            EvidencePage page = rq.findEvidencePage("test.page", token);
+            for (Evidence ev : page.getEvidences()) {
+                assertTrue(ev.getScore() <= previous);
+                previous = ev.getScore();
+                count++;
+            }
+            token = page.getNext();
+        } while (token != null);
+
+        assertEquals(subjects, count);
+        assertEquals(50, rq.findEvidence("test.page", 3).length);
+    }
+
     public void testFindEvidenceSince() throws Throwable {
         RequestHandler rq = this.getRequestHandler();
 
@@ -88,6 +199,110 @@ public class RequestHandlerTest extends TestCase {
         assertEquals(0, evidences.length);
     }
 
+    public void testAggregateEvidence() throws Throwable {
+        RequestHandler rq = this.getRequestHandler();
+
+        String label = "test";
+        DummySubject subject = new DummySubject("test");
+
+        EvidenceAggregate aggregate =
+                rq.aggregateEvidence(label, subject, 0, 200000);
+        assertEquals(0, aggregate.getCount());
+
+        double[] scores = new double[]{0.2, 0.8, 0.5};
+        for (int i = 0; i < scores.length; i++) {
+            Evidence ev = new Evidence();
+            ev.setLabel(label);
+            ev.setScore(scores[i]);
+            ev.setSubject(subject);
+            ev.setTime(123000 + i * 100);
+            rq.addEvidence(ev);
+        }
+
+        aggregate = rq.aggregateEvidence(label, subject, 0, 200000);
+        assertEquals(3, aggregate.getCount());
+        assertEquals(0.2, aggregate.getMin(), 1E-9);
+        assertEquals(0.8, aggregate.getMax(), 1E-9);
+        assertEquals(0.5, aggregate.getAvg(), 1E-9);
+        assertEquals(1.5, aggregate.getSum(), 1E-9);
+        assertEquals(3, aggregate.getIds().size());
+
+        aggregate = rq.aggregateEvidence(label, subject, 123000, 123100);
+        assertEquals(1, aggregate.getCount());
+        assertEquals(0.8, aggregate.getMax(), 1E-9);
+
+        // all ids are returned
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            Evidence ev = new Evidence();
+            ev.setLabel(label);
+            ev.setScore(0.5);
+            ev.setSubject(subject);
+            ev.setTime(124000 + i);
+            rq.addEvidence(ev);
+        }
+        aggregate = rq.aggregateEvidence(label, subject, 0, 200000);
+        assertEquals(count + 3, aggregate.getCount());
+        assertEquals(count + 3, aggregate.getIds().size());
+    }
+
+    /**
+     * Raw data is found with a part of its subject, with both layouts.
+     *
+     * @throws Throwable if a request fails
+     */
+    public void testPartialSubject() throws Throwable {
+        for (boolean buckets : new boolean[]{false, true}) {
+            RequestHandler rq = getRequestHandler();
+            rq.createIndexes(false);
+            if (buckets) {
+                rq.enableBuckets(100, 20);
+            }
+
+            for (int i = 0; i < 10; i++) {
+                Map<String, String> subject = new HashMap<>();
+                subject.put("client", "1.2.3.4");
+                subject.put("server", "server" + (i % 2));
+                RawData data = new RawData();
+                data.setLabel("data");
+                data.setSubject(subject);
+                data.setTime(1000 + i);
+                data.setData(String.valueOf(i));
+                rq.addRawData(data);
+            }
+
+            Map<String, String> client = new HashMap<>();
+            client.put("client", "1.2.3.4");
+            assertEquals(10, rq.findRawData("data", client, 0, 2000).length);
+            assertEquals(10, rq.countRawData("data", client, 0, 2000));
+
+            Map<String, String> full = new HashMap<>(client);
+            full.put("server", "server0");
+            assertEquals(5, rq.findRawData("data", full, 0, 2000).length);
+
+            Map<String, String> server = new HashMap<>();
+            server.put("server", "server1");
+            assertEquals(5, rq.countRawData("data", server, 0, 2000));
+        }
+    }
+
+    /**
+     * The status reports how often each index is used.
+     */
+    public void testIndexes() throws Throwable {
+        RequestHandler rq = getRequestHandler();
+        rq.createIndexes(false);
+
+        DummySubject subject = new DummySubject("test");
+        rq.findRawData("data", subject, 0, 1000);
+
+        Map<String, Object> status = rq.status();
+        assertEquals(
+                1L,
+                status.get("db.index.DATA.LABEL_1_SUBJECT_KEYS_1_TIME_1__id_1"
+                        + ".ops"));
+    }
+
     public void testFindLastRawData() throws Throwable
     {
         RequestHandler rq = getRequestHandler();
@@ -125,13 +340,121 @@ public class RequestHandlerTest extends TestCase {
 
     }
 
-    private RequestHandler getRequestHandler() {
+    /**
+     * Iterate over raw data page by page, including records that have the
+     * same time.
+     */
+    public void testRawDataCursor() throws Throwable {
+        RequestHandler rq = getRequestHandler();
+        DummySubject subject = new DummySubject("cursor");
+
+        for (int i = 0; i < 250; i++) {
+            RawData d = new RawData();
+            d.setData(String.valueOf(i));
+            d.setLabel("data");
+            d.setSubject(subject);
+            d.setTime(1000 + i / 3);
+            rq.addRawData(d);
+        }
+
+        RawDataCursor cursor = new RawDataCursor(
+                rq, "data", subject, 1000, 2000, 10, null);
+        int count = 0;
+        long previous = 0;
+        while (cursor.hasNext()) {
+            RawData record = cursor.next();
+            assertTrue(record.getTime() >= previous);
+            previous = record.getTime();
+            count++;
+        }
+        assertEquals(250, count);
+        assertEquals(250, rq.countRawData("data", subject, 1000, 2000));
+
+        RawData[] times = rq.findRawData(
+                "data", subject, 1000, 2000, new String[]{"time"});
+        assertEquals(250, times.length);
+        assertNull(times[0].getData());
+        assertTrue(times[0].getTime() >= 1000);
+    }
+
+    /**
+     * Test that queries return the same records with the bucket layout.
+     *
+     * @throws Throwable if a request fails
+     */
+    public void testBuckets() throws Throwable {
+        RequestHandler rq = getRequestHandler();
+        rq.enableBuckets(100, 20);
+        DummySubject subject = new DummySubject("buckets");
+
+        RawData[] data = new RawData[250];
+        for (int i = 0; i < 250; i++) {
+            data[i] = new RawData();
+            data[i].setData(String.valueOf(i));
+            data[i].setLabel("data");
+            data[i].setSubject(subject);
+            data[i].setTime(1000 + i);
+        }
+        rq.addRawData(data);
+        assertNotNull(data[0].getId());
+
+        assertEquals(250, rq.findRawData("data", subject, 0, 2000).length);
+        assertEquals(50, rq.countRawData("data", subject, 1100, 1149));
+
+        RawData[] window = rq.findRawData(
+                "data", subject, 1100, 1149, new String[]{"data"});
+        assertEquals(50, window.length);
+        assertNotNull(window[0].getData());
+
+        RawDataCursor cursor = new RawDataCursor(
+                rq, "data", subject, 1000, 2000, 30, null);
+        int count = 0;
+        while (cursor.hasNext()) {
+            assertEquals(String.valueOf(count), cursor.next().getData());
+            count++;
+        }
+        assertEquals(250, count);
+
+        assertEquals(0, rq.findRawData(
+                "data", new DummySubject("other"), 0, 2000).length);
+    }
+
+    /**
+     * The layout cannot be changed while raw data is stored with the other
+     * layout (this data would no longer be visible).
+     *
+     * @throws Throwable if a request fails
+     */
+    public void testBucketsLayoutChange() throws Throwable {
+        RequestHandler rq = getRequestHandler();
+        rq.checkDocumentsLayout();
+
+        RawData data = new RawData();
+        data.setData("data");
+        data.setLabel("data");
+        data.setSubject(new DummySubject("layout"));
+        data.setTime(1000);
+        rq.addRawData(data);
+
+        try {
+            rq.enableBuckets(100, 20);
+            fail("buckets enabled while DATA is not empty");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        rq.checkDocumentsLayout();
+    }
+
+    private static String getMongoHost() {
         String mongo_host = System.getenv(Config.ENV_MONGO_HOST);
         if (mongo_host == null) {
             mongo_host = "127.0.0.1";
         }
+        return mongo_host;
+    }
 
-        MongoClient mongo = new MongoClient(mongo_host);
+    private RequestHandler getRequestHandler() {
+        MongoClient mongo = new MongoClient(getMongoHost());
         MongoDatabase mongodb = mongo.getDatabase("MARK");
         mongodb.drop();
 
@@ -140,6 +463,7 @@ public class RequestHandlerTest extends TestCase {
                 new DummyActivationContoller(),
                 new DataSourcesController(null),
                 new MongoParser());
+        handler.createUniqueIndexes();
 
         return handler;
     }
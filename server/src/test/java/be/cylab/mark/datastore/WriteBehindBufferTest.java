@@ -0,0 +1,236 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 tibo.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package be.cylab.mark.datastore;
+
+import be.cylab.mark.core.RawData;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+import org.bson.Document;
+
+/**
+ *
+ * @author tibo
+ */
+public class WriteBehindBufferTest extends TestCase {
+
+    /**
+     * Documents are written in batches of at most batch_size, and all
+     * documents are written when the buffer is closed.
+     *
+     * @throws InterruptedException
+     */
+    public void testBatches() throws InterruptedException {
+        List<Integer> batches = Collections.synchronizedList(
+                new ArrayList<>());
+        WriteBehindBuffer buffer = new WriteBehindBuffer(
+                documents -> {
+                    batches.add(documents.size());
+                    return new ArrayList<>();
+                },
+                data -> { },
+                1000, 100, 10000);
+        buffer.start();
+
+        add(buffer, 250);
+        buffer.close();
+
+        int total = 0;
+        for (int size : batches) {
+            assertTrue(size <= 100);
+            total += size;
+        }
+        assertEquals(250, total);
+        assertEquals(250L, buffer.getStatus().get(
+                "datastore.write_behind.written"));
+        assertEquals(0, buffer.getStatus().get(
+                "datastore.write_behind.depth"));
+    }
+
+    /**
+     * An incomplete batch is written after flush_interval.
+     *
+     * @throws InterruptedException
+     */
+    public void testFlushInterval() throws InterruptedException {
+        List<Document> written = Collections.synchronizedList(
+                new ArrayList<>());
+        WriteBehindBuffer buffer = new WriteBehindBuffer(
+                documents -> {
+                    written.addAll(documents);
+                    return new ArrayList<>();
+                },
+                data -> { },
+                1000, 100, 50);
+        buffer.start();
+
+        add(buffer, 1);
+        Thread.sleep(500);
+        assertEquals(1, written.size());
+
+        // the latency includes the time spent in the buffer
+        long latency = (long) buffer.getStatus().get(
+                "datastore.write_behind.flush.latency");
+        assertTrue(latency >= 50);
+        buffer.close();
+    }
+
+    /**
+     * The listener is informed only after the data is written, and only of
+     * the data that was actually written.
+     *
+     * @throws InterruptedException
+     */
+    public void testListener() throws InterruptedException {
+        List<Document> written = Collections.synchronizedList(
+                new ArrayList<>());
+        List<RawData> notified = Collections.synchronizedList(
+                new ArrayList<>());
+        WriteBehindBuffer buffer = new WriteBehindBuffer(
+                documents -> {
+                    assertTrue(notified.isEmpty());
+                    written.addAll(documents);
+                    // the first document is invalid
+                    return new ArrayList<>(documents.subList(0, 1));
+                },
+                data -> {
+                    assertEquals(10, written.size());
+                    notified.addAll(Arrays.asList(data));
+                },
+                1000, 100, 10000);
+        buffer.start();
+
+        add(buffer, 10);
+        buffer.close();
+
+        assertEquals(9, notified.size());
+        assertEquals("1", notified.get(0).getId());
+        assertEquals(9L, buffer.getStatus().get(
+                "datastore.write_behind.written"));
+        assertEquals(1L, buffer.getStatus().get(
+                "datastore.write_behind.failed"));
+    }
+
+    /**
+     * When the writer fails, the batch is retried until it is written.
+     *
+     * @throws InterruptedException
+     */
+    public void testRetry() throws InterruptedException {
+        List<Document> written = Collections.synchronizedList(
+                new ArrayList<>());
+        AtomicInteger attempts = new AtomicInteger();
+        WriteBehindBuffer buffer = new WriteBehindBuffer(
+                documents -> {
+                    if (attempts.incrementAndGet() < 6) {
+                        throw new IllegalStateException("connection lost");
+                    }
+
+                    written.addAll(documents);
+                    return new ArrayList<>();
+                },
+                data -> { },
+                1000, 100, 50);
+        buffer.start();
+
+        add(buffer, 10);
+
+        // 100 + 200 + 400 + 800 + 1600 ms of backoff
+        Thread.sleep(4000);
+        assertEquals(6, attempts.get());
+        assertEquals(10, written.size());
+        buffer.close();
+
+        assertEquals(10L, buffer.getStatus().get(
+                "datastore.write_behind.written"));
+        assertEquals(0L, buffer.getStatus().get(
+                "datastore.write_behind.failed"));
+        assertEquals(5L, buffer.getStatus().get(
+                "datastore.write_behind.retries"));
+    }
+
+    /**
+     * Invalid documents (returned by the writer) are not retried.
+     *
+     * @throws InterruptedException
+     */
+    public void testFailed() throws InterruptedException {
+        AtomicInteger attempts = new AtomicInteger();
+        WriteBehindBuffer buffer = new WriteBehindBuffer(
+                documents -> {
+                    attempts.incrementAndGet();
+                    return documents;
+                },
+                data -> fail("no data was written"),
+                1000, 100, 10000);
+        buffer.start();
+
+        add(buffer, 10);
+        buffer.close();
+
+        assertEquals(1, attempts.get());
+        assertEquals(0L, buffer.getStatus().get(
+                "datastore.write_behind.written"));
+        assertEquals(10L, buffer.getStatus().get(
+                "datastore.write_behind.failed"));
+    }
+
+    /**
+     * When the buffer is closed, a batch is retried only a few times before
+     * it is counted as failed.
+     *
+     * @throws InterruptedException
+     */
+    public void testClose() throws InterruptedException {
+        AtomicInteger attempts = new AtomicInteger();
+        WriteBehindBuffer buffer = new WriteBehindBuffer(
+                documents -> {
+                    attempts.incrementAndGet();
+                    throw new IllegalStateException("connection lost");
+                },
+                data -> fail("no data was written"),
+                1000, 100, 10000);
+        buffer.start();
+
+        add(buffer, 10);
+        buffer.close();
+
+        assertEquals(4, attempts.get());
+        assertEquals(10L, buffer.getStatus().get(
+                "datastore.write_behind.failed"));
+    }
+
+    private static void add(final WriteBehindBuffer buffer, final int count)
+            throws InterruptedException {
+
+        for (int i = 0; i < count; i++) {
+            RawData data = new RawData();
+            data.setId(String.valueOf(i));
+            buffer.add(new Document("i", i), data);
+        }
+    }
+}
@@ -27,8 +27,13 @@ import be.cylab.mark.core.DataAgentProfile;
 import be.cylab.mark.core.DetectionAgentProfile;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Random;
 import be.cylab.mark.core.Evidence;
+import be.cylab.mark.core.EvidenceAggregate;
+import be.cylab.mark.core.EvidencePage;
 import be.cylab.mark.core.RawData;
 import be.cylab.mark.core.ServerInterface;
 import java.util.LinkedList;
@@ -68,6 +73,16 @@ public class DummyClient implements ServerInterface {
         this.evidences.add(evidence);
     }
 
+    @Override
+    public void addRawData(RawData[] data) throws Throwable {
+        this.data.addAll(Arrays.asList(data));
+    }
+
+    @Override
+    public void addEvidence(Evidence[] evidences) throws Throwable {
+        this.evidences.addAll(Arrays.asList(evidences));
+    }
+
     @Override
     public ObjectId addFile(byte[] bytes, String filename) throws Throwable {
         System.out.println(bytes);
@@ -122,6 +137,53 @@ public class DummyClient implements ServerInterface {
         return data;
     }
 
+    // fake data returned page by page, generated at the first request
+    private RawData[] pages;
+
+    @Override
+    public RawData[] findRawData(String type, Map subject, long from,
+            long till, String after, int limit, String[] fields)
+            throws Throwable {
+
+        if (pages == null) {
+            pages = findRawData(type, subject, from, till);
+            Arrays.sort(pages, Comparator.comparingLong(RawData::getTime));
+            for (int i = 0; i < pages.length; i++) {
+                pages[i].setId(String.format("%010d", i));
+            }
+        }
+
+        List<RawData> page = new ArrayList<>();
+        for (RawData record : pages) {
+            if (record.getTime() < from || record.getTime() > till) {
+                continue;
+            }
+
+            if (after != null && record.getTime() == from
+                    && record.getId().compareTo(after) <= 0) {
+                continue;
+            }
+
+            page.add(record);
+            if (page.size() == limit) {
+                break;
+            }
+        }
+        return page.toArray(new RawData[page.size()]);
+    }
+
+    @Override
+    public RawData[] findRawData(String type, Map subject, long from,
+            long till, String[] fields) throws Throwable {
+        return findRawData(type, subject, from, till);
+    }
+
+    @Override
+    public long countRawData(String type, Map subject, long from, long till)
+            throws Throwable {
+        return findRawData(type, subject, from, till).length;
+    }
+
     @Override
     public Evidence[] findEvidence(String label, Map subject) throws Throwable {
         throw new UnsupportedOperationException("Not supported yet.");
@@ -184,12 +246,24 @@ public class DummyClient implements ServerInterface {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    @Override
+    public EvidencePage findEvidencePage(String label, String token)
+            throws Throwable {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
     @Override
     public Evidence[] findEvidenceSince(String label, Map subject, long time)
             throws Throwable {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    @Override
+    public EvidenceAggregate aggregateEvidence(String label, Map subject,
+            long from, long till) throws Throwable {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
     @Override
     public void pause() throws Throwable {
         throw new UnsupportedOperationException("Not supported yet.");
@@ -45,4 +45,70 @@ public class ConfigTest extends TestCase {
         assertEquals("1.2.3.4", config.getServerHost());
 
     }
+
+    /**
+     * Test the validation of mongo write concern and read preference.
+     *
+     * @throws Exception if the configuration is invalid
+     */
+    public void testMongoOptions() throws Exception {
+        Config config = new Config();
+        config.setMongoDataWriteConcern("unacknowledged");
+        config.setMongoEvidenceWriteConcern("journaled");
+        config.setMongoDataReadPreference("secondaryPreferred");
+        assertTrue(config.validate());
+
+        config.setMongoDataWriteConcern("sometimes");
+        try {
+            config.validate();
+            fail("Should throw an exception");
+        } catch (Exception ex) {
+            assertTrue(ex.getMessage().contains("write concern"));
+        }
+
+        config.setMongoDataWriteConcern("acknowledged");
+        config.setMongoEvidenceReadPreference("anywhere");
+        try {
+            config.validate();
+            fail("Should throw an exception");
+        } catch (Exception ex) {
+            assertTrue(ex.getMessage().contains("read preference"));
+        }
+    }
+
+    /**
+     * Test the validation of sizes and capacities.
+     *
+     * @throws Exception if the default configuration is invalid
+     */
+    public void testSizes() throws Exception {
+        Config config = new Config();
+        config.setTriggerTrackingCapacity(0);
+        assertInvalid(config, "trigger tracking capacity");
+
+        config = new Config();
+        config.setBatchSize(0);
+        assertInvalid(config, "batch size");
+
+        config = new Config();
+        config.setExecutorConcurrency(0);
+        assertInvalid(config, "executor concurrency");
+
+        config = new Config();
+        config.setExecutorQueueSize(0);
+        assertInvalid(config, "executor queue");
+
+        config = new Config();
+        config.setActivationMaxBacklog(-1);
+        assertInvalid(config, "executor queue");
+    }
+
+    private void assertInvalid(final Config config, final String message) {
+        try {
+            config.validate();
+            fail("Should throw an exception");
+        } catch (Exception ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains(message));
+        }
+    }
 }